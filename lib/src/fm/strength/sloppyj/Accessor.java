@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes a single field of a model object.
+ * <p>
+ * Accessors are created once per field by {@link ClassModel}. Where java.lang.invoke is
+ * available (any JVM, Android O and later) they are backed by MethodHandles bound to the
+ * field, which skip the per-call access checks of {@link Field#get(Object)} and
+ * {@link Field#set(Object, Object)}; otherwise they fall back to plain reflection.
+ * </p>
+ */
+abstract class Accessor {
+
+	private static final Factory factory = load();
+	private static Factory load() {
+		Factory f = loadHandles();
+		if(f == null) f = loadReflection();
+		return f;
+	}
+
+	private static Factory loadHandles() {
+		try {
+			Class.forName("java.lang.invoke.MethodHandles");
+			return new Factory() {
+				Accessor create(Field field) {
+					try {
+						return new HandleAccessor(field);
+					} catch(Exception e) {
+						return new ReflectionAccessor(field);
+					}
+				}
+			};
+		} catch(Throwable ignored) {
+			return null;
+		}
+	}
+
+	private static Factory loadReflection() {
+		return new Factory() {
+			Accessor create(Field field) {
+				return new ReflectionAccessor(field);
+			}
+		};
+	}
+
+	static Accessor of(Field field) {
+		return factory.create(field);
+	}
+
+	abstract Object get(Object object) throws IllegalAccessException;
+
+	abstract void set(Object object, Object value) throws IllegalAccessException;
+
+
+	private static abstract class Factory {
+		abstract Accessor create(Field field);
+	}
+
+	private static class ReflectionAccessor extends Accessor {
+
+		final Field field;
+
+		ReflectionAccessor(Field field) {
+			this.field = field;
+		}
+
+		@Override
+		Object get(Object object) throws IllegalAccessException {
+			return field.get(object);
+		}
+
+		@Override
+		void set(Object object, Object value) throws IllegalAccessException {
+			field.set(object, value);
+		}
+
+	}
+
+	private static class HandleAccessor extends ReflectionAccessor {
+
+		private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+		private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+		private final Class<?> boxed; // the wrapper of a primitive field: the only type the setter takes without converting
+
+		HandleAccessor(Field field) throws IllegalAccessException {
+			super(field);
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			this.getter = lookup.unreflectGetter(field).asType(GETTER);
+			this.setter = lookup.unreflectSetter(field).asType(SETTER);
+			Class<?> type = field.getType();
+			this.boxed = type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : null;
+		}
+
+		@Override
+		Object get(Object object) throws IllegalAccessException {
+			try {
+				return (Object) getter.invokeExact(object);
+			} catch(RuntimeException | Error e) {
+				throw e;
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+		@Override
+		void set(Object object, Object value) throws IllegalAccessException {
+			if(boxed != null && value != null && value.getClass() != boxed) {
+				// let reflection apply its widening conversions (an Integer into a double field, etc), or reject the value
+				super.set(object, value);
+				return;
+			}
+			try {
+				setter.invokeExact(object, value);
+			} catch(ClassCastException e) {
+				// not a value of the field's type - let reflection reject it as it would
+				super.set(object, value);
+			} catch(RuntimeException | Error e) {
+				throw e;
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+}
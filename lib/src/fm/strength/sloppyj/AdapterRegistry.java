@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable set of TypeAdapters, indexed by type. Values are written with the adapter of
+ * their class or its nearest registered superclass or interface, resolved once per class; JSON
+ * is read into a field with the adapter registered for the field's exact type. The types JSON
+ * values are parsed as (String, Boolean, Integer, Long, Double, BigInteger and BigDecimal) and
+ * primitives cannot have adapters, and are passed over without a lookup.
+ * <p>
+ * The resolved adapters are cached with the registry, holding classes weakly (as {@link ClassModel}
+ * does), so a registry that lives as long as the application - in a {@link JayConfig} - neither
+ * resolves a class twice nor keeps it from being unloaded.
+ * </p>
+ */
+final class AdapterRegistry {
+
+	static final String ERR_CORE_TYPE = "cannot adapt %s: it is a core JSON type";
+
+	static final AdapterRegistry EMPTY = new AdapterRegistry(new HashMap<Class<?>, TypeAdapter<?>>());
+
+	private static final Object NONE = new Object();
+
+	private final Map<Class<?>, TypeAdapter<?>> adapters;
+	private final ConcurrentMap<ClassModel.ClassKey, Object> resolved = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Class<?>> queue = new ReferenceQueue<>();
+
+	private AdapterRegistry(Map<Class<?>, TypeAdapter<?>> adapters) {
+		this.adapters = adapters;
+	}
+
+
+	/**
+	 * @return a new registry with the adapters of this one, and the given adapter for the given type
+	 * @throws IllegalArgumentException if the type is a core JSON type or a primitive
+	 */
+	<T> AdapterRegistry with(Class<T> type, TypeAdapter<T> adapter) {
+		if(isCore(type) || type.isPrimitive()) {
+			throw new IllegalArgumentException(String.format(ERR_CORE_TYPE, type.getName()));
+		}
+		Map<Class<?>, TypeAdapter<?>> map = new HashMap<>(adapters);
+		map.put(type, adapter);
+		return new AdapterRegistry(map);
+	}
+
+	/**
+	 * @return the adapter for reading JSON into a field of the given type, or null if there is none
+	 */
+	TypeAdapter<?> fromJson(Class<?> type) {
+		if(isCore(type) || type.isPrimitive()) return null;
+		return adapters.get(type);
+	}
+
+	/**
+	 * @return the value, converted by the adapter for its class (if there is one)
+	 */
+	@SuppressWarnings("unchecked")
+	Object toJson(Object value) {
+		if(value == null) return null;
+		Class<?> type = value.getClass();
+		if(isCore(type)) return value;
+		Object adapter = resolved.get(new ClassModel.ClassProbe(type));
+		if(adapter == null) {
+			purge();
+			TypeAdapter<?> a = resolve(type);
+			adapter = (a != null) ? a : NONE;
+			resolved.put(new ClassModel.ClassKey(type, queue), adapter);
+		}
+		return (adapter != NONE) ? ((TypeAdapter<Object>) adapter).toJson(value) : value;
+	}
+
+	private void purge() {
+		Reference<?> ref;
+		while((ref = queue.poll()) != null) {
+			resolved.remove(ref);
+		}
+	}
+
+	private TypeAdapter<?> resolve(Class<?> type) {
+		for(Class<?> c = type; c != null; c = c.getSuperclass()) {
+			TypeAdapter<?> adapter = adapters.get(c);
+			if(adapter != null) return adapter;
+		}
+		for(Class<?> c = type; c != null; c = c.getSuperclass()) {
+			for(Class<?> i : c.getInterfaces()) {
+				TypeAdapter<?> adapter = resolveInterface(i);
+				if(adapter != null) return adapter;
+			}
+		}
+		return null;
+	}
+
+	private TypeAdapter<?> resolveInterface(Class<?> type) {
+		TypeAdapter<?> adapter = adapters.get(type);
+		if(adapter != null) return adapter;
+		for(Class<?> i : type.getInterfaces()) {
+			adapter = resolveInterface(i);
+			if(adapter != null) return adapter;
+		}
+		return null;
+	}
+
+	private static boolean isCore(Class<?> type) {
+		return type == String.class || type == Integer.class || type == Boolean.class ||
+				type == Long.class || type == Double.class || type == BigInteger.class || type == BigDecimal.class;
+	}
+
+}
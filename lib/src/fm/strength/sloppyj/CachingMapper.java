@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A Mapper that remembers the keys mapped by another, so that each distinct key is
+ * only mapped once in each direction:
+ * <pre>
+ * static final Mapper MAPPER = new CachingMapper(new SnakeMapper());
+ * </pre>
+ * The mapped Mapper must be a pure function of the key. The caches are safe for concurrent
+ * use, and bounded: when one reaches maxSize keys, it is cleared and starts again.
+ */
+public class CachingMapper implements Mapper {
+
+	public static final int DEFAULT_MAX_SIZE = 1024;
+
+	private final Mapper mapper;
+	private final int maxSize;
+	private final ConcurrentMap<String, String> fromJson = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, String> toJson = new ConcurrentHashMap<>();
+
+	public CachingMapper(Mapper mapper) {
+		this(mapper, DEFAULT_MAX_SIZE);
+	}
+
+	public CachingMapper(Mapper mapper, int maxSize) {
+		this.mapper = mapper;
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public String fromJson(String key) {
+		if(key == null) return mapper.fromJson(null);
+		String mapped = fromJson.get(key);
+		if(mapped == null) {
+			mapped = mapper.fromJson(key);
+			put(fromJson, key, mapped);
+		}
+		return mapped;
+	}
+
+	@Override
+	public String toJson(String key) {
+		if(key == null) return mapper.toJson(null);
+		String mapped = toJson.get(key);
+		if(mapped == null) {
+			mapped = mapper.toJson(key);
+			put(toJson, key, mapped);
+		}
+		return mapped;
+	}
+
+	private void put(ConcurrentMap<String, String> cache, String key, String mapped) {
+		if(mapped != null) {
+			if(cache.size() >= maxSize) {
+				cache.clear();
+			}
+			cache.put(key, mapped);
+		}
+	}
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The reflective description of a model class: its fields, their types and the
+ * element types of their List and Map values - resolved once per class and shared
+ * by the parser and the builder.
+ * <p>
+ * Models are cached per class. The cache is safe for concurrent use, holds classes
+ * weakly and models softly (the same scheme as {@link java.io.ObjectStreamClass}),
+ * so caching a model does not prevent its class from being unloaded.
+ * </p>
+ */
+class ClassModel {
+
+	private static final ConcurrentMap<ClassKey, Reference<ClassModel>> cache = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<Class<?>> queue = new ReferenceQueue<>();
+	private static final int MAX_MAPPERS = 8;
+
+	static ClassModel of(Class<?> type) {
+		purge();
+		Reference<ClassModel> ref = cache.get(new ClassProbe(type));
+		ClassModel model = (ref != null) ? ref.get() : null;
+		if(model == null) {
+			model = new ClassModel(type);
+			cache.put(new ClassKey(type, queue), new SoftReference<>(model));
+		}
+		return model;
+	}
+
+	private static void purge() {
+		Reference<?> ref;
+		while((ref = queue.poll()) != null) {
+			cache.remove(ref);
+		}
+	}
+
+
+	final Class<?> type;
+	final FieldModel[] fields;
+	private final Map<String, FieldModel> byName;
+	private final String[] names;
+	private volatile MappedNames mapped;
+	private final ConcurrentMap<Object, MappedNames> byMapper = new ConcurrentHashMap<>();
+	private volatile Kreator kreator;
+
+	private ClassModel(Class<?> type) {
+		this.type = type;
+		List<FieldModel> list = new ArrayList<>();
+		for(Field field : type.getDeclaredFields()) {
+			if(!field.isSynthetic() && !Modifier.isStatic(field.getModifiers())) {
+				list.add(new FieldModel(field));
+			}
+		}
+		this.fields = list.toArray(new FieldModel[list.size()]);
+		this.byName = new HashMap<>(fields.length * 2);
+		this.names = new String[fields.length];
+		for(int i = 0; i < fields.length; i++) {
+			byName.put(fields[i].name, fields[i]);
+			names[i] = fields[i].name;
+		}
+	}
+
+	FieldModel field(String name) {
+		return byName.get(name);
+	}
+
+	/**
+	 * @return the JSON name of each field (in the same order as fields), as mapped by the given Mapper
+	 */
+	String[] toJson(Mapper mapper) {
+		return (mapper != null) ? mapped(mapper).toJson : names;
+	}
+
+	/**
+	 * @return the field name for the given JSON key, as mapped by the given Mapper
+	 */
+	String fromJson(Mapper mapper, String key) {
+		return (mapper != null) ? mapped(mapper).fromJson(key) : key;
+	}
+
+	private MappedNames mapped(Mapper mapper) {
+		MappedNames m = mapped;
+		if(m == null || m.mapper != mapper) {
+			Object key = keyOf(mapper);
+			m = byMapper.get(key);
+			if(m == null) {
+				m = new MappedNames(mapper);
+				// a Mapper with state that is created for each call is a new key each time, so only a few are kept
+				if(byMapper.size() >= MAX_MAPPERS) byMapper.clear();
+				byMapper.put(key, m);
+			}
+			mapped = m;
+		}
+		return m;
+	}
+
+	/**
+	 * @return the Mapper's class, if it has no instance fields; otherwise the Mapper
+	 */
+	private static Object keyOf(Mapper mapper) {
+		for(Class<?> c = mapper.getClass(); c != Object.class; c = c.getSuperclass()) {
+			for(Field field : c.getDeclaredFields()) {
+				if(!Modifier.isStatic(field.getModifiers())) return mapper;
+			}
+		}
+		return mapper.getClass();
+	}
+
+
+	/**
+	 * The names of the fields as mapped by one Mapper, so that each is mapped once per class,
+	 * rather than once per occurrence. Mappers without state (such as a new SnakeMapper for
+	 * each call) share the names mapped by their class; others have their own, by equality.
+	 */
+	private final class MappedNames {
+
+		final Mapper mapper;
+		final String[] toJson;
+		private final ConcurrentMap<String, String> fromJson;
+
+		MappedNames(Mapper mapper) {
+			this.mapper = mapper;
+			this.toJson = new String[fields.length];
+			for(int i = 0; i < fields.length; i++) {
+				toJson[i] = mapper.toJson(fields[i].name);
+			}
+			this.fromJson = new ConcurrentHashMap<>(fields.length * 2);
+		}
+
+		String fromJson(String key) {
+			String name = fromJson.get(key);
+			if(name == null) {
+				name = mapper.fromJson(key);
+				// only keys of fields are kept, and only a few spellings of each, so unknown keys cannot grow the cache
+				if(name != null && byName.containsKey(name) && fromJson.size() < 4 * fields.length) {
+					fromJson.put(key, name);
+				}
+			}
+			return name;
+		}
+
+	}
+
+	Object newInstance() {
+		Kreator k = kreator;
+		if(k == null) {
+			kreator = k = Kreator.of(type);
+		}
+		return k.newInstance();
+	}
+
+
+	static final class FieldModel {
+
+		final Field field;
+		final Accessor accessor;
+		final String name;
+
+		/** the declared type of the field */
+		final Class<?> type;
+
+		/** the type of the values in the field: the element type for Lists, otherwise the declared type */
+		final Class<?> valueType;
+
+		/** the type of nested objects: the element type for Lists, the value type for Maps, otherwise the declared type */
+		final Class<?> childType;
+
+		final boolean map;
+
+		private volatile ClassModel childModel;
+
+		private FieldModel(Field field) {
+			this.field = field;
+			this.name = field.getName();
+			this.type = field.getType();
+			this.map = Map.class.isAssignableFrom(type);
+			if(map) {
+				this.valueType = type;
+				this.childType = typeArgument(field, 1);
+			}
+			else if(List.class.isAssignableFrom(type)) {
+				this.valueType = typeArgument(field, 0);
+				this.childType = valueType;
+			}
+			else {
+				this.valueType = type;
+				this.childType = type;
+			}
+			try {
+				field.setAccessible(true);
+			} catch(RuntimeException e) {
+				// not accessible (system class, security manager, etc) - get and set will fail and be skipped
+			}
+			this.accessor = Accessor.of(field);
+		}
+
+		ClassModel childModel() {
+			ClassModel model = childModel;
+			if(model == null) {
+				childModel = model = ClassModel.of(childType);
+			}
+			return model;
+		}
+
+		/**
+		 * @return the class of the generic type argument at the given index, or null if
+		 * it cannot be resolved to a class (raw types, wildcards, type variables...)
+		 */
+		private static Class<?> typeArgument(Field field, int index) {
+			try {
+				return (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[index];
+			} catch(Exception e) {
+				return null;
+			}
+		}
+
+	}
+
+
+	/**
+	 * A key holding its class weakly, so that caching a model (or an adapter) does not keep
+	 * the class from being unloaded. Only created to insert: lookups use a {@link ClassProbe}.
+	 */
+	static final class ClassKey extends WeakReference<Class<?>> {
+
+		private final int hash;
+
+		ClassKey(Class<?> type, ReferenceQueue<Class<?>> queue) {
+			super(type, queue);
+			this.hash = System.identityHashCode(type);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj == this) return true;
+			if(obj instanceof ClassKey) {
+				Class<?> type = get();
+				return type != null && type == ((ClassKey) obj).get();
+			}
+			if(obj instanceof ClassProbe) {
+				Class<?> type = get();
+				return type != null && type == ((ClassProbe) obj).type;
+			}
+			return false;
+		}
+
+	}
+
+	/**
+	 * Looks up a {@link ClassKey} without creating a Reference for every lookup: it is equal to
+	 * the key holding the same class.
+	 */
+	static final class ClassProbe {
+
+		private final Class<?> type;
+
+		ClassProbe(Class<?> type) {
+			this.type = type;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(type);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj instanceof ClassKey) return type == ((ClassKey) obj).get();
+			if(obj instanceof ClassProbe) return type == ((ClassProbe) obj).type;
+			return false;
+		}
+
+	}
+
+}
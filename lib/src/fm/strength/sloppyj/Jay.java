@@ -17,16 +17,26 @@ package fm.strength.sloppyj;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 public class Jay {
 
 	public static final String ERR_NULL_KEY = "key cannot be null";
+	public static final String ERR_READ = "could not read the input";
+	public static final String ERR_ARRAY_TYPE = "only Object, int, long, double, float and boolean arrays are supported";
+	public static final String ERR_SEVERAL_VALUES = "several top-level values in a stream too long to read ahead: write them withJsonLines()";
 
 
 	public static Jay get(Object object) {
@@ -37,13 +47,42 @@ public class Jay {
     	return new Jay(array);
     }
 
+    /**
+     * Parse a parameterized template once, for binding to args many times.
+     * @see JayTemplate
+     */
+    public static JayTemplate compile(String template) {
+    	return new JayTemplate(template);
+    }
+
+    /**
+     * Get the UTF-8 JSON document in the given file. The file is memory-mapped and parsed
+     * in place, rather than being read onto the heap.
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static Jay get(Path path) throws IOException {
+    	return new Jay(new JsonSource.MappedSource(path));
+    }
+
     
     Object data;
 
     private Class<?> objType;
     private Adapter adapter;
+    private AdapterRegistry adapters;
     private Mapper mapper;
     private Set<String> skip;
+    private boolean indexed;
+    private JsonIndex index;
+    private Object indexedJson; // the document the index is of
+    private ForkJoinPool pool;
+    private boolean parsed;
+    private boolean bigDecimals;
+    private boolean jsonLines;
+    private boolean uniqueKeys;
+    private JaySymbols symbols;
+    private boolean recycled;
+    private List<JayTemplate.Slot> slots;
     
     private String[] path;
 	private Object[] args;
@@ -52,6 +91,29 @@ public class Jay {
     private Jay(Object from) {
     	this.data = from;
     }
+    
+    Jay(Object from, JayConfig config) {
+    	this.data = from;
+    	this.adapter = config.adapter;
+    	this.adapters = config.adapters;
+    	this.mapper = config.mapper;
+    	this.skip = config.skip;
+    	this.bigDecimals = config.bigDecimals;
+    	this.indexed = config.indexed;
+    	this.symbols = config.symbols;
+    	this.recycled = config.recycled;
+    	this.pool = config.pool;
+    }
+    
+    /**
+     * @return a Jay over data that is already the result of parsing (Maps, Lists and values), which
+     * as() and asList() return as-is, rather than converting, when it is an instance of the requested type
+     */
+    static Jay parsed(Object data) {
+    	Jay jay = new Jay(data);
+    	jay.parsed = true;
+    	return jay;
+    }
 
     
     @SuppressWarnings("unchecked")
@@ -59,64 +121,76 @@ public class Jay {
     	if(type == null) {
     		return null;
     	}
-    	if(type.isArray() && type != Object[].class) {
-    		throw new IllegalArgumentException("only Object arrays are supported");
+    	if(type.isArray() && type != Object[].class && !PrimitiveArray.supports(type)) {
+    		throw new IllegalArgumentException(ERR_ARRAY_TYPE);
     	}
     	if(data != null) {
     		if(path != null) {
-    			if(data instanceof String) data = new JsonParser(this, type).toJava();
-    			data = find(0, data);
+    			boolean primitives = PrimitiveArray.supports(type);
+    			data = isJson() ? findJson(primitives ? Object.class : type) : find(0, data);
+    			if(primitives && data != null && !type.isInstance(data)) {
+    				data = new ObjectConverter(this, type).toJava(data);
+    			}
     		}
-    		else if(type != data.getClass()) {
+    		else if(type != data.getClass() && !(parsed && objType == null && type.isInstance(data))) {
 				if(objType == null) objType = type;
-				if(!(data instanceof String)) data = new JsonBuilder(this).toJson();
-				data = new JsonParser(this, type).toJava();
+				if(isJson()) data = new JsonParser(this, type).toJava();
+				else data = new ObjectConverter(this, type).toJava(data);
 			}
     	}
     	if(data == null) {
     		if(List.class.isAssignableFrom(type)) data = new ArrayList<>(0);
     	}
-    	if(type.isPrimitive()) {
-    		if(type == boolean.class) return (T) ((data instanceof Boolean) ? data : false);
-    		if(type == double.class) {
-    			if(data instanceof Double) return (T) data;
-    			if(data instanceof Float) return (T) new Double((Float) data);
-    			return (T) new Double(0.0);
-    		}
-    		if(type == float.class) return (T) ((data instanceof Float) ? data : 0.0);
-    		if(type == long.class) {
-    			if(data instanceof Long) return (T) data;
-    			if(data instanceof Integer) return (T) new Long((Integer) data);
-    			return (T) new Long(0);
-    		}
-    		return (T) ((data instanceof Integer) ? data : 0);
-    	}
-    	if(type == Double.class && data instanceof Float) {
-    		return (T) new Double((Float) data);
-    	}
-    	if(type == Long.class && data instanceof Integer) {
-    		return (T) new Long((Integer) data);
-    	}
-    	if(type == String.class) {
-    		return (data != null) ? (T) data.toString() : null;
-    	}
-    	return (type != null && type.isInstance(data)) ? (T) data : null;
+    	return cast(data, type);
     }
     
+    /**
+     * @return the data as strict JSON. JSON input is transcoded one token at a time, without
+     * building Maps and Lists, unless there is a path or an Adapter (which need the parsed values).
+     * Repeated keys are written as they appear, unless {@link #withUniqueKeys()}. Several top-level
+     * values are written as an array, or one per line {@link #withJsonLines()}.
+     */
     public String asJson() {
     	if(data == null) return null;
-		if(data instanceof String) data = new JsonParser(this, Object.class).toJava();
-    	if(path != null) data = find(0, data);
-		return new JsonBuilder(this).toJson();
+		return builder().toJson();
+    }
+    
+    /**
+     * @return the data as UTF-8 encoded JSON, encoded directly rather than through a String
+     */
+    public byte[] asBytes() {
+    	if(data == null) return null;
+		JsonBuilder builder = builder();
+		Utf8Writer w = new Utf8Writer(buffer());
+		try {
+			builder.sendJson(w);
+			return w.toByteArray();
+		} catch(IOException e) {
+			// cannot happen: there is nowhere to write to
+			throw new RuntimeException(e);
+		} finally {
+			if(recycled) JayBuffers.get().release(w.bytes);
+		}
     }
     
     public List<String> asKeys() {
     	if(data == null) return new ArrayList<String>(0);
-    	if(data instanceof String) data = new JsonParser(this, Object.class).toJava();
-    	if(path != null) data = find(0, data);
+    	if(path != null) data = isJson() ? findJson(Object.class) : find(0, data);
+    	else if(isJson()) data = new JsonParser(this, Object.class).toJava();
     	return addKeys(data, new ArrayList<String>());
     }
     
+    /**
+     * @return a pull reader over the data, for reading it one token at a time
+     * without building Maps and Lists (data that is not JSON is converted to JSON first)
+     */
+    public JayReader asReader() {
+    	Object json = data;
+    	if(json == null) json = "";
+    	else if(!isJson()) json = new JsonBuilder(this).toJson();
+    	return new JayReader(this, json);
+    }
+    
     @SuppressWarnings("unchecked")
 	public List<Object> asList() {
     	return as(List.class);
@@ -133,19 +207,153 @@ public class Jay {
     	return as(Map.class);
     }
     
+    /**
+     * Parse the top-level values of the data one at a time, as they are requested - for a
+     * sequence of documents, such as newline-delimited JSON, in a file or stream too large to
+     * hold in memory. Only the value being parsed (and, for a Reader or InputStream, a small
+     * buffer) is held at once. Each value is converted to the given type as by {@link #as(Class)}.
+     */
+    public <T> Iterator<T> stream(final Class<T> type) {
+    	if(type.isArray() && type != Object[].class && !PrimitiveArray.supports(type)) {
+    		throw new IllegalArgumentException(ERR_ARRAY_TYPE);
+    	}
+    	Object json = data;
+    	if(json == null) json = "";
+    	else if(!isJson()) json = new JsonBuilder(this).toJson();
+    	objType = type;
+    	final JsonParser parser = new JsonParser(this, json, type);
+    	return new Iterator<T>() {
+    		public boolean hasNext() {
+    			return parser.hasNext();
+    		}
+    		public T next() {
+    			if(!parser.hasNext()) throw new NoSuchElementException();
+    			return cast(parser.next(), type);
+    		}
+    		public void remove() {
+    			throw new UnsupportedOperationException();
+    		}
+    	};
+    }
+    
     public Jay at(String path) {
-    	this.path = path.split("[\\.:]");
+    	this.path = JayPath.split(path);
     	return this;
     }
     
+    /**
+     * @return every value in the data matching the given path, in document order. JSON is
+     * matched as it is parsed, and only the matching values are created; when it holds several
+     * top-level values, each is matched separately. As with {@link #at(String)}, only the first
+     * of repeated keys in an object is matched, and kept in the values matched.
+     */
+    public List<Object> select(JayPath path) {
+    	List<Object> matches = new ArrayList<Object>();
+    	if(data != null) {
+    		if(!isJson()) {
+    			path.select(data, 0, matches);
+    		} else {
+    			JsonParser parser = new JsonParser(this, Object.class);
+    			parser.firstKeys = true;
+    			if(args == null) {
+    				parser.select(path, matches);
+    			} else {
+    				// skipped values would not consume their args, so parse everything and then select
+    				while(parser.hasNext()) {
+    					path.select(parser.next(), 0, matches);
+    				}
+    			}
+    		}
+    	}
+    	return matches;
+    }
+    
+    /**
+     * Parse the data, sending each value and structural event to the given handler
+     * rather than building Maps and Lists (data that is not JSON is converted to JSON first).
+     * Args, the Mapper and withOut are applied; the Adapter is not.
+     */
+    public void sendEvents(JayHandler handler) {
+    	if(data != null) {
+    		Object json = isJson() ? data : new JsonBuilder(this).toJson();
+    		new JsonParser(this, json, Object.class).toHandler(handler);
+    	}
+    }
+    
+    /**
+     * Write the data as UTF-8 encoded JSON to the given stream, encoding directly into a byte
+     * buffer (no intermediate String); the stream is flushed, but not closed. JSON input is
+     * transcoded as by {@link #asJson()}, so a Reader or InputStream is written in constant memory.
+     * To find whether it holds several top-level values (to write them as an array), a stream is
+     * read ahead up to 64K characters; a longer stream is written as a single value, and another
+     * value after it throws an IllegalStateException - unless {@link #withJsonLines()}.
+     */
     public void sendJson(OutputStream out) throws IOException {
+    	send(Utf8Writer.of(out, buffer()));
+    }
+    
+    /**
+     * Write the data as UTF-8 encoded JSON to the given channel (the channel is not closed).
+     */
+    public void sendJson(WritableByteChannel out) throws IOException {
+    	send(Utf8Writer.of(out, buffer()));
+    }
+    
+    /**
+     * Write the data as UTF-8 encoded JSON into the given buffer, heap or direct, starting at its
+     * position (which is advanced past the JSON).
+     * @throws java.nio.BufferOverflowException if the JSON does not fit in the buffer's remaining space
+     */
+    public void sendJson(ByteBuffer out) {
+    	try {
+    		send(Utf8Writer.of(out, buffer()));
+    	} catch(IOException e) {
+    		// cannot happen: ByteBuffers do not throw IOExceptions
+    		throw new RuntimeException(e);
+    	}
+    }
+    
+    private void send(Utf8Writer out) throws IOException {
+    	try {
+    		sendJson(out);
+    	} finally {
+    		if(recycled) JayBuffers.get().release(out.bytes);
+    	}
+    }
+    
+    private void sendJson(Writer out) throws IOException {
     	if(data != null) {
-    		if(data instanceof String) Jay.get(asMap()).sendJson(out);
-    		else new JsonBuilder(this).sendJson(out);
+    		builder().sendJson(out);
     	}
     }
+    
+    /**
+     * @return a builder for writing the data: one that transcodes JSON input straight to the output
+     * when it can (or that writes its top-level values one per line), otherwise one for the data,
+     * parsed and found at the path first as needed
+     */
+    private JsonBuilder builder() {
+    	if(isJson() && path == null && (transcodes() || jsonLines)) {
+    		return new JsonBuilder(this, new JsonParser(this, Object.class));
+    	}
+		if(path != null) data = isJson() ? findJson(Object.class) : find(0, data);
+		else if(isJson()) data = new JsonParser(this, Object.class).toJava();
+		return new JsonBuilder(this);
+    }
 
     
+    /**
+     * Parse a document that is a single top-level array on the given pool: the element boundaries
+     * are found in one pass, then the elements (including model binding) are parsed in parallel and
+     * collected in order. Other documents, input that is not in memory (Readers and InputStreams),
+     * and documents with args are parsed sequentially as usual.
+     * The Adapter and Mapper, if any, must be thread-safe.
+     */
+    public Jay parallel(ForkJoinPool pool) {
+    	this.pool = pool;
+    	return this;
+    }
+    
     public Jay withArgs(Object...args) {
     	this.args = args;
     	this.nextArg = 0;
@@ -157,11 +365,91 @@ public class Jay {
     	return this;
     }
     
+    /**
+     * Convert values of the given type with the given adapter: fields of exactly that type are read with it,
+     * and values of that type (or a subtype, if no adapter is registered for the subtype) are written with it.
+     * Each type may have one adapter; an Adapter set with {@link #withAdapter(Adapter)} applies after it.
+     * Adapters registered here are resolved for each class again in every call; register them on a shared
+     * {@link JayConfig} to resolve each class once.
+     * @throws IllegalArgumentException for the types that JSON values are parsed as (String, Integer...) and primitives
+     */
+    public <T> Jay withAdapter(Class<T> type, TypeAdapter<T> adapter) {
+    	this.adapters = (adapters != null ? adapters : AdapterRegistry.EMPTY).with(type, adapter);
+    	return this;
+    }
+    
+    /**
+     * Read decimal numbers as BigDecimals, exactly as written, rather than as Doubles
+     * (except into double and float fields of models). Integers are always read exactly:
+     * as an Integer, or a Long or BigInteger when they do not fit.
+     */
+    public Jay withBigDecimals() {
+    	this.bigDecimals = true;
+    	return this;
+    }
+    
+    /**
+     * Write several top-level values of JSON input as JSON Lines - each on its own line, as it is
+     * read - rather than as an array, so that a Reader or InputStream is never read ahead.
+     */
+    public Jay withJsonLines() {
+    	this.jsonLines = true;
+    	return this;
+    }
+    
+    /**
+     * Write an object of JSON input that repeats a key with only the last value of that key, as
+     * {@link #asMap()} would, rather than each as it appears. This buffers: every object is read
+     * ahead (a Reader or InputStream is held in memory for the whole of each top-level object) and
+     * one that repeats a key is parsed and then built. Input with args is parsed first, as reading
+     * ahead would take the args of "?" keys.
+     */
+    public Jay withUniqueKeys() {
+    	this.uniqueKeys = true;
+    	return this;
+    }
+    
+    /**
+     * Record where each array and object that is skipped (withOut, unknown model fields, siblings off an
+     * at() path or select, or {@link JayReader#skipValue()}) ends, so that skipping it again is a lookup
+     * instead of a scan of its contents. It is only a skip index: the values that are read are scanned as
+     * usual. Nothing is read ahead to build it - containers are recorded as they are skipped, moving forward
+     * through the document - and it is kept with this Jay, so it pays off when the same document is passed
+     * over again: another {@link #asReader()}, or the elements of a {@link #parallel(ForkJoinPool)} parse,
+     * which are found by skipping them first. Only applies to input held in memory (a String, byte[],
+     * ByteBuffer or file) - Readers and InputStreams are parsed without an index.
+     */
+    public Jay withIndex() {
+    	this.indexed = true;
+    	return this;
+    }
+    
+    /**
+     * Reuse the calling thread's scratch buffers (see {@link JayBuffers}) for the strings and arrays
+     * being parsed and the JSON being written, rather than allocating new ones each time. Parsers use
+     * the buffers of the thread that creates them, so an Iterator from {@link #stream(Class)} must
+     * then be used on the thread that created it.
+     */
+    public Jay withRecycledBuffers() {
+    	this.recycled = true;
+    	return this;
+    }
+    
     public Jay withMapper(Mapper mapper) {
     	this.mapper = mapper;
     	return this;
     }
     
+    /**
+     * Return keys and short values from a table of canonical Strings, rather than creating a
+     * new String for every occurrence. Worthwhile when the same keys (or enum-like values) repeat
+     * many times; the table can be kept and shared across parses and threads. See {@link JaySymbols}.
+     */
+    public Jay withSymbols(JaySymbols symbols) {
+    	this.symbols = symbols;
+    	return this;
+    }
+    
     public Jay withOut(String...keys) {
     	this.skip = new HashSet<>(Arrays.asList(keys));
     	return this;
@@ -170,6 +458,10 @@ public class Jay {
 
     Object adaptFromJson(ObjectWrapper wrapper, String key, Object json) {
     	Class<?> type = (wrapper != null) ? wrapper.getType(key) : Object.class;
+    	if(adapters != null && type != null) {
+    		TypeAdapter<?> a = adapters.fromJson(type);
+    		if(a != null) return a.fromJson(json);
+    	}
     	if(adapter != null) {
     		if(type != null) return adapter.fromJson(type, json);
     	} else {
@@ -179,6 +471,7 @@ public class Jay {
     }
     
     Object adaptToJson(Object value) {
+    	if(adapters != null) value = adapters.toJson(value);
     	return (adapter != null) ? adapter.toJson(value) : value;
     }
     
@@ -186,6 +479,58 @@ public class Jay {
     	return new ObjectWrapper(objType);
     }
     
+    boolean useBigDecimals() {
+    	return bigDecimals;
+    }
+    
+    boolean useJsonLines() {
+    	return jsonLines;
+    }
+    
+    boolean useUniqueKeys() {
+    	return uniqueKeys;
+    }
+    
+    /**
+     * @return true if JSON input can be written out token by token: there are no Adapters or model
+     * type, which need the parsed values, nor args with unique keys (reading ahead would take them)
+     */
+    boolean transcodes() {
+    	return adapter == null && adapters == null && objType == null && (args == null || !uniqueKeys);
+    }
+    
+    JayBuffers buffers() {
+    	return recycled ? JayBuffers.get() : null;
+    }
+    
+    byte[] buffer() {
+    	return recycled ? JayBuffers.get().bytes() : new byte[Utf8Writer.BUFFER_SIZE];
+    }
+    
+    JaySymbols symbols() {
+    	return symbols;
+    }
+    
+    /**
+     * @return the skip index of the given JSON (kept, so that every pass over it records to and
+     * looks up in the same index), or null if it is not wanted or the source is not in memory
+     */
+    JsonIndex index(Object json, JsonSource src) {
+    	if(!indexed || !src.inMemory()) {
+    		return null;
+    	}
+    	if(index == null || indexedJson != json) {
+    		index = new JsonIndex();
+    		indexedJson = json;
+    	}
+    	return index;
+    }
+    
+    ForkJoinPool pool() {
+    	// placeholders are filled in document order, so a document with args is always parsed sequentially
+    	return (args == null) ? pool : null;
+    }
+    
     boolean include(String key) {
     	return (skip != null) ? !skip.contains(key) : (key != null);
     }
@@ -194,14 +539,78 @@ public class Jay {
     	return (mapper != null) ? mapper.fromJson(key) : key;
     }
     
+    /**
+     * mapFromJson for a key of the given object, looked up in the names of its model (if it has one)
+     */
+    String mapFromJson(String key, ObjectWrapper wrapper) {
+    	ClassModel model = (mapper != null && wrapper != null) ? wrapper.model() : null;
+    	return (model != null) ? model.fromJson(mapper, key) : mapFromJson(key);
+    }
+    
+    /**
+     * @return the mapped JSON names of the fields of the given model
+     */
+    String[] mapToJson(ClassModel model) {
+    	return model.toJson(mapper);
+    }
+    
     String mapToJson(String key) {
     	return (mapper != null) ? mapper.toJson(key) : key;
     }
     
     Object nextArg() {
+    	if(slots != null) {
+    		JayTemplate.Slot slot = new JayTemplate.Slot(slots.size());
+    		slots.add(slot);
+    		return slot;
+    	}
     	return (args != null) ? args[nextArg++] : "?";
     }
     
+    /**
+     * Compile mode for JayTemplate: each placeholder is replaced by a new Slot, which is added to the given list.
+     */
+    Jay withSlots(List<JayTemplate.Slot> slots) {
+    	this.slots = slots;
+    	return this;
+    }
+    
+    
+    /**
+     * @return true if the data is JSON to be parsed (a String, byte[], stream etc), rather than Java objects
+     */
+    private boolean isJson() {
+    	return !parsed && JsonSource.isJson(data);
+    }
+    
+    @SuppressWarnings("unchecked")
+	private static <T> T cast(Object data, Class<T> type) {
+    	if(type.isPrimitive()) {
+    		if(type == boolean.class) return (T) ((data instanceof Boolean) ? data : false);
+    		if(type == double.class) {
+    			if(data instanceof Double) return (T) data;
+    			if(data instanceof Float) return (T) new Double((Float) data);
+    			return (T) new Double(0.0);
+    		}
+    		if(type == float.class) return (T) ((data instanceof Float) ? data : 0.0);
+    		if(type == long.class) {
+    			if(data instanceof Long) return (T) data;
+    			if(data instanceof Integer) return (T) new Long((Integer) data);
+    			return (T) new Long(0);
+    		}
+    		return (T) ((data instanceof Integer) ? data : 0);
+    	}
+    	if(type == Double.class && data instanceof Float) {
+    		return (T) new Double((Float) data);
+    	}
+    	if(type == Long.class && data instanceof Integer) {
+    		return (T) new Long((Integer) data);
+    	}
+    	if(type == String.class) {
+    		return (data != null) ? (T) data.toString() : null;
+    	}
+    	return (type != null && type.isInstance(data)) ? (T) data : null;
+    }
     
     private List<String> addKeys(Object o, List<String> keys) {
     	if(o instanceof Iterable) {
@@ -215,6 +624,23 @@ public class Jay {
         return keys;
     }
  
+    /**
+     * Find the value at the path in JSON data. When the document is an object the path is
+     * followed while parsing, which skips everything not on the path and stops reading once the
+     * value is found, so the first of repeated keys wins (in the value found too); otherwise
+     * (and when args must be counted, or a model type is set) the whole document is parsed,
+     * keeping the first of repeated keys as well, and then searched.
+     */
+    private Object findJson(Class<?> type) {
+    	JsonParser parser = new JsonParser(this, type);
+    	parser.firstKeys = true;
+    	if(args == null && objType == null && !type.isArray() && path.length > 0
+    			&& !JsonParser.isIndex(path[0]) && parser.startsWithObject()) {
+    		return parser.toJava(path);
+    	}
+    	return find(0, parser.toJava());
+    }
+    
     private Object find(int i, Object o) {
         return (i < path.length-1) ? find(i+1, get(i, o)) : get(i, o);
     }
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The scratch buffers of one thread, reused by every {@link Jay} on that thread that is
+ * configured {@link Jay#withRecycledBuffers()}: the chars of strings being parsed, the elements
+ * of arrays being parsed, and the chars or bytes of JSON being written. Buffers that have grown
+ * past a cap are dropped after use rather than kept, so a single large document does not pin
+ * memory for the life of the thread.
+ * <p>
+ * The counters are per thread, so they can be read around a piece of work to see how many
+ * buffers it allocated and how many times it was served a recycled one:
+ * </p>
+ * <pre>
+ * long before = JayBuffers.allocations();
+ * Jay.get(json).withRecycledBuffers().asList();
+ * long allocated = JayBuffers.allocations() - before; // 0 in steady state
+ * </pre>
+ */
+public final class JayBuffers {
+
+	static final int MAX_CHARS = 16 * 1024;
+	static final int MAX_BYTES = 64 * 1024;
+	static final int MAX_VALUES = 16 * 1024;
+
+	private static final ThreadLocal<JayBuffers> local = new ThreadLocal<JayBuffers>() {
+		protected JayBuffers initialValue() {
+			return new JayBuffers();
+		}
+	};
+
+	/**
+	 * @return the number of buffers allocated for recycling on the calling thread
+	 */
+	public static long allocations() {
+		return local.get().allocations;
+	}
+
+	/**
+	 * @return the number of times a recycled buffer was used on the calling thread
+	 */
+	public static long reuses() {
+		return local.get().reuses;
+	}
+
+	/**
+	 * Drop the calling thread's buffers, and reset its counters.
+	 */
+	public static void clear() {
+		local.remove();
+	}
+
+	static JayBuffers get() {
+		return local.get();
+	}
+
+
+	private long allocations;
+	private long reuses;
+
+	private StringBuilder chars;
+	private Object[] values;
+	private int size;
+	private CharWriter writer;
+	private byte[] bytes;
+
+	private JayBuffers() {
+		// per thread only
+	}
+
+
+	/**
+	 * @return an empty StringBuilder; no other call may be made on this thread until it has
+	 * been given back with {@link #release(StringBuilder)} (it is used only within newString)
+	 */
+	StringBuilder chars() {
+		if(chars == null) {
+			allocations++;
+			chars = new StringBuilder(256);
+		} else {
+			reuses++;
+			chars.setLength(0);
+		}
+		return chars;
+	}
+
+	void release(StringBuilder sb) {
+		if(sb.capacity() > MAX_CHARS) {
+			chars = null;
+		}
+	}
+
+	/**
+	 * @return the mark to give to {@link #list(int)} or {@link #array(int)} to take the values
+	 * pushed since. Marks nest, so arrays within arrays (and parses within Adapters) share the stack.
+	 */
+	int mark() {
+		if(values == null) {
+			allocations++;
+			values = new Object[64];
+		} else if(size == 0) {
+			reuses++;
+		}
+		return size;
+	}
+
+	void push(Object value) {
+		if(size == values.length) {
+			allocations++;
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	/**
+	 * @return the values pushed since the mark, in an ArrayList of exactly their size
+	 */
+	ArrayList<Object> list(int mark) {
+		ArrayList<Object> list = new ArrayList<Object>(size - mark);
+		for(int i = mark; i < size; i++) {
+			list.add(values[i]);
+		}
+		reset(mark);
+		return list;
+	}
+
+	/**
+	 * @return the values pushed since the mark, in an array of exactly their size
+	 */
+	Object[] array(int mark) {
+		Object[] array = Arrays.copyOfRange(values, mark, size);
+		reset(mark);
+		return array;
+	}
+
+	/**
+	 * drop the values pushed since the mark (called after an array is taken, or abandoned by an exception)
+	 */
+	void reset(int mark) {
+		if(mark < size) {
+			Arrays.fill(values, mark, size, null);
+			size = mark;
+		}
+		if(size == 0 && values.length > MAX_VALUES) {
+			values = null;
+		}
+	}
+
+	/**
+	 * @return an empty Writer to build a String in, held until given back with {@link #release(CharWriter)}
+	 * (a nested call, from an Adapter, gets a new one)
+	 */
+	CharWriter writer() {
+		CharWriter w = writer;
+		if(w == null) {
+			allocations++;
+			return new CharWriter();
+		}
+		reuses++;
+		writer = null;
+		w.sb.setLength(0);
+		return w;
+	}
+
+	void release(CharWriter w) {
+		if(w.sb.capacity() <= MAX_CHARS) {
+			writer = w;
+		}
+	}
+
+	/**
+	 * @return a byte buffer of at least Utf8Writer.BUFFER_SIZE, held until given back with {@link #release(byte[])}
+	 */
+	byte[] bytes() {
+		byte[] b = bytes;
+		if(b == null) {
+			allocations++;
+			return new byte[Utf8Writer.BUFFER_SIZE];
+		}
+		reuses++;
+		bytes = null;
+		return b;
+	}
+
+	void release(byte[] b) {
+		if(b.length <= MAX_BYTES) {
+			bytes = b;
+		}
+	}
+
+
+	/**
+	 * an unsynchronized StringWriter
+	 */
+	static final class CharWriter extends Writer {
+		final StringBuilder sb = new StringBuilder(256);
+		public void write(int c) {
+			sb.append((char) c);
+		}
+		public void write(char[] cbuf, int off, int len) {
+			sb.append(cbuf, off, len);
+		}
+		public void write(String s) {
+			sb.append(s);
+		}
+		public void write(String s, int off, int len) {
+			sb.append(s, off, off + len);
+		}
+		public void flush() {
+			// nothing to do
+		}
+		public void close() {
+			// nothing to do
+		}
+		public String toString() {
+			return sb.toString();
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An immutable set of {@link Jay} options, configured once and then used to get a Jay
+ * for each call:
+ * <pre>
+ * static final JayConfig API = JayConfig.create().withMapper(new SnakeMapper()).withOut("password");
+ * ...
+ * User user = API.get(json).as(User.class);
+ * String out = API.get(user).asJson();
+ * </pre>
+ * Each with* method returns a new JayConfig, leaving the original unchanged, so a config can
+ * be shared across threads (as long as its Adapter and Mapper are thread-safe). Each Jay it gets
+ * starts with its options, which may still be added to (withArgs, at, ...) for that call only.
+ */
+public final class JayConfig {
+
+	private static final JayConfig EMPTY = new JayConfig(null, null, null, null, false, false, null, false, null);
+
+	public static JayConfig create() {
+		return EMPTY;
+	}
+
+
+	final Adapter adapter;
+	final AdapterRegistry adapters;
+	final Mapper mapper;
+	final Set<String> skip;
+	final boolean bigDecimals;
+	final boolean indexed;
+	final JaySymbols symbols;
+	final boolean recycled;
+	final ForkJoinPool pool;
+
+	private JayConfig(Adapter adapter, AdapterRegistry adapters, Mapper mapper, Set<String> skip, boolean bigDecimals,
+			boolean indexed, JaySymbols symbols, boolean recycled, ForkJoinPool pool) {
+		this.adapter = adapter;
+		this.adapters = adapters;
+		this.mapper = mapper;
+		this.skip = skip;
+		this.bigDecimals = bigDecimals;
+		this.indexed = indexed;
+		this.symbols = symbols;
+		this.recycled = recycled;
+		this.pool = pool;
+	}
+
+
+	public Jay get(Object object) {
+		return new Jay(object, this);
+	}
+
+	public Jay get(Object...array) {
+		return new Jay(array, this);
+	}
+
+	/**
+	 * @see Jay#get(Path)
+	 */
+	public Jay get(Path path) throws IOException {
+		return new Jay(new JsonSource.MappedSource(path), this);
+	}
+
+	/**
+	 * @see Jay#parallel(ForkJoinPool)
+	 */
+	public JayConfig parallel(ForkJoinPool pool) {
+		return new JayConfig(adapter, adapters, mapper, skip, bigDecimals, indexed, symbols, recycled, pool);
+	}
+
+	public JayConfig withAdapter(Adapter adapter) {
+		return new JayConfig(adapter, adapters, mapper, skip, bigDecimals, indexed, symbols, recycled, pool);
+	}
+
+	/**
+	 * @see Jay#withAdapter(Class, TypeAdapter)
+	 */
+	public <T> JayConfig withAdapter(Class<T> type, TypeAdapter<T> adapter) {
+		AdapterRegistry registry = (adapters != null ? adapters : AdapterRegistry.EMPTY).with(type, adapter);
+		return new JayConfig(this.adapter, registry, mapper, skip, bigDecimals, indexed, symbols, recycled, pool);
+	}
+
+	/**
+	 * @see Jay#withBigDecimals()
+	 */
+	public JayConfig withBigDecimals() {
+		return new JayConfig(adapter, adapters, mapper, skip, true, indexed, symbols, recycled, pool);
+	}
+
+	/**
+	 * @see Jay#withIndex()
+	 */
+	public JayConfig withIndex() {
+		return new JayConfig(adapter, adapters, mapper, skip, bigDecimals, true, symbols, recycled, pool);
+	}
+
+	public JayConfig withMapper(Mapper mapper) {
+		return new JayConfig(adapter, adapters, mapper, skip, bigDecimals, indexed, symbols, recycled, pool);
+	}
+
+	public JayConfig withOut(String...keys) {
+		Set<String> skip = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(keys)));
+		return new JayConfig(adapter, adapters, mapper, skip, bigDecimals, indexed, symbols, recycled, pool);
+	}
+
+	/**
+	 * @see Jay#withRecycledBuffers()
+	 */
+	public JayConfig withRecycledBuffers() {
+		return new JayConfig(adapter, adapters, mapper, skip, bigDecimals, indexed, symbols, true, pool);
+	}
+
+	/**
+	 * @see Jay#withSymbols(JaySymbols)
+	 */
+	public JayConfig withSymbols(JaySymbols symbols) {
+		return new JayConfig(adapter, adapters, mapper, skip, bigDecimals, indexed, symbols, recycled, pool);
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Receives the structure and values of a document as it is parsed, from {@link Jay#sendEvents(JayHandler)}.
+ * <p>
+ * Numbers are delivered as primitives where they fit: integers that fit in an int go to {@link #value(int)},
+ * larger ones to {@link #value(long)}, and integers too large for a long to {@link #value(BigInteger)}.
+ * Decimals go to {@link #value(double)}, or to {@link #value(BigDecimal)} with {@link Jay#withBigDecimals()}
+ * - the same types that {@link Jay#asMap()} and {@link Jay#asList()} read them as.
+ * </p>
+ */
+public interface JayHandler {
+
+	void startObject();
+
+	void key(String key);
+
+	void endObject();
+
+	void startArray();
+
+	void endArray();
+
+	void value(int value);
+
+	void value(long value);
+
+	void value(double value);
+
+	void value(BigInteger value);
+
+	void value(BigDecimal value);
+
+	void value(boolean value);
+
+	void value(String value);
+
+	void nullValue();
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled path expression, for selecting values from documents:
+ * <pre>
+ * JayPath path = JayPath.compile("orders.*.items[0].sku");
+ * List&lt;Object&gt; skus = Jay.get(json).select(path);
+ * </pre>
+ * A path is a series of steps, separated by '.' or ':'
+ * <ul>
+ * <li><code>name</code> - the value of the key in an object (or, if it is a number, the element of an array)</li>
+ * <li><code>*</code> - every value of an object, or every element of an array</li>
+ * <li><code>[0]</code>, <code>[0,2]</code>, <code>[*]</code> - the given elements of an array
+ * (brackets may follow a name directly, as in <code>items[0]</code>)</li>
+ * <li><code>{id,name}</code> - the values of each of the given keys in an object</li>
+ * </ul>
+ * Every match is returned, in document order; steps that do not match (a missing key,
+ * an index past the end, a name applied to a value that is not an object) simply match nothing.
+ * A value is matched at most once by a step: a repeated index is ignored, and in an object
+ * that repeats a key only the first is matched, as in {@link Jay#at(String)}.
+ * <p>
+ * Paths are immutable and may be shared between threads and used on any number of documents.
+ * </p>
+ */
+public final class JayPath {
+
+	public static final String ERR_INVALID_PATH = "invalid path: %s";
+
+	public static JayPath compile(String path) {
+		return new JayPath(path);
+	}
+
+
+	final Step[] steps;
+	private final String path;
+
+	private JayPath(String path) {
+		this.path = path;
+		this.steps = parse(path);
+	}
+
+
+	/**
+	 * @return every value in the given data (JSON, or Maps and Lists) matching this path
+	 * @see Jay#select(JayPath)
+	 */
+	public List<Object> select(Object data) {
+		return Jay.get(data).select(this);
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+
+	void select(Object o, int i, List<Object> matches) {
+		if(i == steps.length) {
+			matches.add(o);
+			return;
+		}
+		Step step = steps[i];
+		if(o instanceof Map) {
+			Map<?,?> map = (Map<?,?>) o;
+			if(step.name != null) {
+				if(map.containsKey(step.name)) select(map.get(step.name), i+1, matches);
+			} else {
+				for(Map.Entry<?,?> entry : map.entrySet()) {
+					if(step.matches(String.valueOf(entry.getKey()))) select(entry.getValue(), i+1, matches);
+				}
+			}
+		}
+		else if(o instanceof List || o instanceof Object[]) {
+			List<?> list = (o instanceof List) ? (List<?>) o : Arrays.asList((Object[]) o);
+			if(step.indexes != null) {
+				for(int index : step.indexes) {
+					if(index < list.size()) select(list.get(index), i+1, matches);
+				}
+			} else if(step.any) {
+				for(Object element : list) {
+					select(element, i+1, matches);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Splits a path on '.' and ':', with the same result as <code>path.split("[\\.:]")</code>.
+	 */
+	static String[] split(String path) {
+		List<String> segments = new ArrayList<String>();
+		int start = 0;
+		for(int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if(c == '.' || c == ':') {
+				segments.add(path.substring(start, i));
+				start = i + 1;
+			}
+		}
+		segments.add(path.substring(start));
+		int size = segments.size();
+		while(size > 0 && segments.get(size-1).isEmpty()) size--;
+		if(size == 0 && path.isEmpty()) return new String[] { "" };
+		return segments.subList(0, size).toArray(new String[size]);
+	}
+
+	private static Step[] parse(String path) {
+		List<Step> steps = new ArrayList<Step>();
+		int i = 0;
+		int length = path.length();
+		while(i < length) {
+			char c = path.charAt(i);
+			if(c == '[') {
+				int end = close(path, i, ']');
+				steps.add(indexes(path, path.substring(i+1, end)));
+				i = end + 1;
+			}
+			else if(c == '{') {
+				int end = close(path, i, '}');
+				String[] names = path.substring(i+1, end).split(",");
+				for(int j = 0; j < names.length; j++) {
+					names[j] = names[j].trim();
+				}
+				steps.add(new Step(null, names, null, false));
+				i = end + 1;
+			}
+			else {
+				int end = i;
+				while(end < length && "[]{}.:".indexOf(path.charAt(end)) < 0) end++;
+				String name = path.substring(i, end);
+				if(name.isEmpty()) {
+					throw new IllegalArgumentException(String.format(ERR_INVALID_PATH, path));
+				}
+				steps.add("*".equals(name) ? new Step(null, null, null, true) : new Step(name, null, index(name), false));
+				i = end;
+			}
+			if(i < length) {
+				c = path.charAt(i);
+				if(c == '.' || c == ':') {
+					if(++i == length) throw new IllegalArgumentException(String.format(ERR_INVALID_PATH, path));
+				}
+				else if(c != '[') throw new IllegalArgumentException(String.format(ERR_INVALID_PATH, path));
+			}
+		}
+		if(steps.isEmpty()) {
+			throw new IllegalArgumentException(String.format(ERR_INVALID_PATH, path));
+		}
+		return steps.toArray(new Step[steps.size()]);
+	}
+
+	private static int close(String path, int open, char close) {
+		int end = path.indexOf(close, open);
+		if(end < 0) throw new IllegalArgumentException(String.format(ERR_INVALID_PATH, path));
+		return end;
+	}
+
+	private static Step indexes(String path, String list) {
+		if("*".equals(list.trim())) {
+			return new Step(null, null, null, true);
+		}
+		String[] items = list.split(",");
+		int[] indexes = new int[items.length];
+		for(int i = 0; i < items.length; i++) {
+			try {
+				indexes[i] = Integer.parseInt(items[i].trim());
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException(String.format(ERR_INVALID_PATH, path));
+			}
+			if(indexes[i] < 0) throw new IllegalArgumentException(String.format(ERR_INVALID_PATH, path));
+		}
+		Arrays.sort(indexes);
+		int size = 0;
+		for(int i = 0; i < indexes.length; i++) {
+			if(size == 0 || indexes[i] != indexes[size-1]) indexes[size++] = indexes[i];
+		}
+		return new Step(null, null, Arrays.copyOf(indexes, size), false);
+	}
+
+	private static int[] index(String name) {
+		for(int i = 0; i < name.length(); i++) {
+			if(!Character.isDigit(name.charAt(i))) return null;
+		}
+		try {
+			return new int[] { Integer.parseInt(name) };
+		} catch(NumberFormatException e) {
+			return null; // too large to be an index
+		}
+	}
+
+
+	/**
+	 * One step of a path: a key (which may also be an index), several keys, several indexes, or any.
+	 */
+	static final class Step {
+
+		final String name;
+		final String[] names;
+		final int[] indexes;
+		final boolean any;
+
+		Step(String name, String[] names, int[] indexes, boolean any) {
+			this.name = name;
+			this.names = names;
+			this.indexes = indexes;
+			this.any = any;
+		}
+
+		boolean matches(String key) {
+			if(any) return true;
+			if(name != null) return name.equals(key);
+			if(names != null) {
+				for(String n : names) {
+					if(n.equals(key)) return true;
+				}
+			}
+			return false;
+		}
+
+		boolean matches(int index) {
+			if(any) return true;
+			if(indexes != null) {
+				for(int i : indexes) {
+					if(i == index) return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+}
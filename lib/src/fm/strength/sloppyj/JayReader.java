@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.util.Arrays;
+
+/**
+ * A pull reader over the same sloppy input that {@link Jay} accepts - unquoted keys
+ * and values, single quotes, missing brackets and commas, '?' placeholders - one token
+ * at a time, without building any Maps or Lists.
+ * <p>
+ * Get one from {@link Jay#asReader()}. Args, the Mapper and withOut exclusions of the
+ * Jay are applied: placeholders are replaced, names are mapped, and excluded names are
+ * skipped along with their values.
+ * </p>
+ * <pre>
+ * JayReader reader = Jay.get(json).asReader();
+ * reader.nextToken(); // BEGIN_OBJECT
+ * while(reader.hasNext()) {
+ *     String name = reader.nextName();
+ *     if("id".equals(name)) id = reader.nextInt();
+ *     else reader.skipValue();
+ * }
+ * reader.nextToken(); // END_OBJECT
+ * </pre>
+ * <p>
+ * A document may hold several top-level values, which are read one after the other
+ * until {@link Token#END_DOCUMENT}. Readers are not thread-safe.
+ * </p>
+ */
+public class JayReader extends JsonScanner {
+
+	public static final String ERR_UNEXPECTED_TOKEN = "expected %s but was %s";
+
+	public enum Token {
+		BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int DOCUMENT = 0;
+	private static final int ARRAY_NEXT = 1;
+	private static final int ARRAY_AFTER = 2;
+	private static final int OBJECT_KEY = 3;
+	private static final int OBJECT_VALUE = 4;
+	private static final int OBJECT_AFTER = 5;
+
+	private final Jay jay;
+	private int[] stack = new int[16];
+	private int depth;
+
+	private Token peeked;
+	private String text;
+	private long start;
+	private long end;
+	private int raw = RAW_TEXT;
+	private boolean placeholder;
+	private Object arg;
+
+	JayReader(Jay jay, Object data) {
+		super(JsonSource.of(data));
+		this.jay = jay;
+		this.index = jay.index(data, src);
+		this.recording = (index != null);
+		this.symbols = jay.symbols();
+		this.buffers = jay.buffers();
+		this.stack[depth++] = DOCUMENT;
+	}
+
+
+	/**
+	 * @return the type of the next token, without consuming it
+	 */
+	public Token peek() {
+		if(peeked == null) {
+			peeked = advance();
+		}
+		return peeked;
+	}
+
+	/**
+	 * @return true if the current array or object has another element
+	 * (or, at the top level, if there is another value)
+	 */
+	public boolean hasNext() {
+		Token token = peek();
+		return token != Token.END_ARRAY && token != Token.END_OBJECT && token != Token.END_DOCUMENT;
+	}
+
+	/**
+	 * Consumes the next token, of any type, and returns its type. Names and values
+	 * consumed this way are discarded, and array and object contents are not skipped:
+	 * calling nextToken repeatedly walks every token in the document.
+	 */
+	public Token nextToken() {
+		Token token = peek();
+		if(token != Token.END_DOCUMENT) {
+			consume();
+		}
+		return token;
+	}
+
+	public String nextName() {
+		expect(Token.NAME);
+		String name = text;
+		consume();
+		return name;
+	}
+
+	/**
+	 * @return the next value as a String: a string, or the text of a number or boolean; null for a null value
+	 */
+	public String nextString() {
+		Token token = peek();
+		if(token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN && token != Token.NULL) {
+			throw new IllegalStateException(String.format(ERR_UNEXPECTED_TOKEN, Token.STRING, token));
+		}
+		String value = (token == Token.NULL) ? null : text();
+		consume();
+		return value;
+	}
+
+	public int nextInt() {
+		int i;
+		if(rawNumber() == RAW_INTEGER) {
+			long l = parseLong(start, end);
+			if(l != (int) l) throw new NumberFormatException(text());
+			i = (int) l;
+		} else {
+			Object value = number();
+			i = (value instanceof Number) ? ((Number) value).intValue() : Integer.parseInt((String) value);
+		}
+		consume();
+		return i;
+	}
+
+	public long nextLong() {
+		long l;
+		if(rawNumber() == RAW_INTEGER) {
+			l = parseLong(start, end);
+		} else {
+			Object value = number();
+			l = (value instanceof Number) ? ((Number) value).longValue() : Long.parseLong((String) value);
+		}
+		consume();
+		return l;
+	}
+
+	public double nextDouble() {
+		double d;
+		if(rawNumber() != RAW_TEXT) {
+			d = parseDouble(start, end);
+		} else {
+			Object value = number();
+			d = (value instanceof Number) ? ((Number) value).doubleValue() : Double.parseDouble((String) value);
+		}
+		consume();
+		return d;
+	}
+
+	public boolean nextBoolean() {
+		expect(Token.BOOLEAN);
+		boolean b = placeholder ? (Boolean) arg : "true".equals(text);
+		consume();
+		return b;
+	}
+
+	public void nextNull() {
+		expect(Token.NULL);
+		consume();
+	}
+
+	/**
+	 * Skips the next value, without creating it. If the next token is a name, both the
+	 * name and its value are skipped.
+	 */
+	public void skipValue() {
+		Token token = peek();
+		switch(token) {
+		case NAME:
+			consume();
+			stack[depth-1] = OBJECT_AFTER;
+			skip();
+			break;
+		case BEGIN_ARRAY:
+			consume();
+			depth--;
+			skipArray();
+			break;
+		case BEGIN_OBJECT:
+			consume();
+			depth--;
+			skipObject();
+			break;
+		case END_ARRAY:
+		case END_OBJECT:
+		case END_DOCUMENT:
+			throw new IllegalStateException(String.format(ERR_UNEXPECTED_TOKEN, "a value", token));
+		default:
+			consume();
+		}
+	}
+
+
+	private Token advance() {
+		while(true) {
+			switch(stack[depth-1]) {
+			case DOCUMENT:
+				if(!ff()) return Token.END_DOCUMENT;
+				return value();
+			case ARRAY_NEXT:
+				if(!ff()) return end(Token.END_ARRAY);
+				stack[depth-1] = ARRAY_AFTER;
+				return value();
+			case ARRAY_AFTER:
+				int c = ff(',');
+				if(c == ',') pos++;
+				else if(c != '[' && c != '{') return end(Token.END_ARRAY);
+				stack[depth-1] = ARRAY_NEXT;
+				break;
+			case OBJECT_KEY:
+				if(!ff()) return end(Token.END_OBJECT);
+				String key = getKey();
+				if(ff(':') == ':') {
+					pos++;
+					stack[depth-1] = OBJECT_AFTER;
+					if(ff()) {
+						if(jay.include(key)) {
+							text = key;
+							stack[depth-1] = OBJECT_VALUE;
+							return Token.NAME;
+						}
+						skip();
+					}
+				}
+				break;
+			case OBJECT_VALUE:
+				stack[depth-1] = OBJECT_AFTER;
+				return value();
+			case OBJECT_AFTER:
+				if(ff(',') != ',') return end(Token.END_OBJECT);
+				pos++;
+				stack[depth-1] = OBJECT_KEY;
+				break;
+			}
+		}
+	}
+
+	private Token begin(Token token, int state) {
+		if(depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth++] = state;
+		return token;
+	}
+
+	private Token end(Token token) {
+		pos++;
+		depth--;
+		return token;
+	}
+
+	private void consume() {
+		peeked = null;
+		text = null;
+		raw = RAW_TEXT;
+		placeholder = false;
+		arg = null;
+	}
+
+	private void expect(Token token) {
+		if(peek() != token) {
+			throw new IllegalStateException(String.format(ERR_UNEXPECTED_TOKEN, token, peeked));
+		}
+	}
+
+	private String getKey() {
+		String key;
+		switch(src.at(pos)) {
+		case '"':
+		case '\'':
+			pos++;
+			long from = pos;
+			key = symbol(from, scanString());
+			break;
+		default:
+			long s = pos;
+			key = symbol(s, scanKey());
+		}
+		return "?".equals(key) ? String.valueOf(jay.nextArg()) : jay.mapFromJson(key);
+	}
+
+	/**
+	 * @return RAW_INTEGER or RAW_DECIMAL if the next token is a number in the input (not an arg), which
+	 * can be parsed straight from the source without creating its text; otherwise RAW_TEXT
+	 */
+	private int rawNumber() {
+		return (peek() == Token.NUMBER) ? raw : RAW_TEXT;
+	}
+
+	private Object number() {
+		Token token = peek();
+		if(token != Token.NUMBER && token != Token.STRING) {
+			throw new IllegalStateException(String.format(ERR_UNEXPECTED_TOKEN, Token.NUMBER, token));
+		}
+		return placeholder ? arg : text();
+	}
+
+	private String text() {
+		if(placeholder) {
+			return String.valueOf(arg);
+		}
+		if(text == null) {
+			text = symbol(start, end);
+		}
+		return text;
+	}
+
+	private Token value() {
+		switch(src.at(pos)) {
+		case '[':  pos++; return begin(Token.BEGIN_ARRAY, ARRAY_NEXT);
+		case '{':  pos++; return begin(Token.BEGIN_OBJECT, OBJECT_KEY);
+		case '"':
+		case '\'':
+			pos++;
+			start = pos;
+			end = scanString();
+			return Token.STRING;
+		}
+
+		long s = pos;
+		int type = scanRaw();
+
+		if(ff(',') == ':') {
+			pos = s;
+			return begin(Token.BEGIN_OBJECT, OBJECT_KEY);
+		}
+		if(type != RAW_TEXT) {
+			// the text of a number is only created if it is asked for
+			start = s;
+			end = pos;
+			raw = type;
+			return Token.NUMBER;
+		}
+		text = symbol(s, pos);
+		if(text.length() == 0) return Token.NULL;
+		if("?".equals(text)) {
+			placeholder = true;
+			arg = jay.nextArg();
+			if(arg == null) return Token.NULL;
+			if(arg instanceof Boolean) return Token.BOOLEAN;
+			if(arg instanceof Number) return Token.NUMBER;
+			return Token.STRING;
+		}
+		if("null".equals(text)) return Token.NULL;
+		if("true".equals(text) || "false".equals(text)) return Token.BOOLEAN;
+		return Token.STRING;
+	}
+
+}
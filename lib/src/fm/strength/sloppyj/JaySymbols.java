@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+/**
+ * A bounded table of canonical Strings for keys and short values, used by parsers that are
+ * given one with {@link Jay#withSymbols(JaySymbols)}:
+ * <pre>
+ * static final JaySymbols SYMBOLS = new JaySymbols();
+ * ...
+ * List&lt;Object&gt; rows = Jay.get(json).withSymbols(SYMBOLS).asList();
+ * </pre>
+ * Text is looked up by comparing the characters of the input directly, so a key or value
+ * that is already in the table costs neither a new String nor any retained memory; each
+ * occurrence is the same String instance.
+ * <p>
+ * Only printable ASCII text without escapes, up to maxLength characters, is canonicalized;
+ * anything else is created as usual. The table never grows: when a slot is needed it replaces
+ * what was there. A table may be shared between threads and parses - it holds only immutable
+ * Strings, so a race at worst creates a String that would otherwise have been found.
+ * </p>
+ */
+public final class JaySymbols {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+	public static final int DEFAULT_MAX_LENGTH = 32;
+
+	private final String[] table;
+	private final int mask;
+	private final int maxLength;
+
+	public JaySymbols() {
+		this(DEFAULT_CAPACITY, DEFAULT_MAX_LENGTH);
+	}
+
+	/**
+	 * @param capacity the number of Strings the table holds (rounded up to a power of two)
+	 * @param maxLength the length of the longest text to canonicalize
+	 */
+	public JaySymbols(int capacity, int maxLength) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.table = new String[size];
+		this.mask = size - 1;
+		this.maxLength = maxLength;
+	}
+
+
+	/**
+	 * @return the canonical String for the input from start to end (trimmed, as
+	 * {@link JsonScanner#newString(long, long)} would), or null if it is not eligible
+	 */
+	String get(JsonSource src, long start, long end) {
+		while(start < end && src.at(start) <= ' ') start++;
+		while(end > start && src.at(end-1) <= ' ') end--;
+		int length = (int) (end - start);
+		if(length > maxLength) {
+			return null;
+		}
+		int hash = 0;
+		for(long i = start; i < end; i++) {
+			int c = src.at(i);
+			if(c > '~' || c == '\\') return null;
+			hash = 31 * hash + c;
+		}
+
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		String s = table[slot];
+		if(s != null && matches(s, hash, src, start, length)) {
+			return s;
+		}
+		int next = (slot + 1) & mask;
+		String s2 = table[next];
+		if(s2 != null && matches(s2, hash, src, start, length)) {
+			return s2;
+		}
+
+		char[] chars = new char[length];
+		for(int i = 0; i < length; i++) {
+			chars[i] = (char) src.at(start + i);
+		}
+		String symbol = new String(chars);
+		table[(s == null || s2 != null) ? slot : next] = symbol;
+		return symbol;
+	}
+
+	private static boolean matches(String s, int hash, JsonSource src, long start, int length) {
+		if(s.hashCode() != hash || s.length() != length) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(s.charAt(i) != src.at(start + i)) return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parameterized JSON template, parsed once by {@link Jay#compile(String)} and then bound
+ * to args any number of times:
+ * <pre>
+ * JayTemplate template = Jay.compile("?:[?,?]");
+ * Map&lt;String, Object&gt; map = template.bind("a", 1, 2).asMap(); // -> {a=[1, 2]}
+ * </pre>
+ * Binding gives the same result as <code>Jay.get(template).withArgs(args)</code>, but copies
+ * the parsed structure and fills in the '?' placeholders rather than parsing the template again.
+ * Templates are immutable and may be shared between threads.
+ */
+public final class JayTemplate {
+
+	public static final String ERR_ARGS = "template has %d placeholders, but only %d args were given";
+
+
+	private final Node root;
+	private final int slots;
+
+	JayTemplate(String template) {
+		List<Slot> slots = new ArrayList<Slot>();
+		Object value = new JsonParser(Jay.get((Object) template).withSlots(slots), Object.class).toJava();
+		Map<String, Slot> keys = new IdentityHashMap<String, Slot>();
+		for(Slot slot : slots) {
+			keys.put(slot.key, slot);
+		}
+		this.root = compile(value, keys);
+		this.slots = slots.size();
+	}
+
+
+	/**
+	 * @return a Jay over the template, with its placeholders replaced by the given args, in order
+	 */
+	public Jay bind(Object...args) {
+		if(args.length < slots) {
+			throw new IllegalArgumentException(String.format(ERR_ARGS, slots, args.length));
+		}
+		return Jay.parsed(root.bind(args));
+	}
+
+
+	private static Node compile(Object value, Map<String, Slot> keys) {
+		if(value instanceof Slot) {
+			return new SlotNode(((Slot) value).index);
+		}
+		if(value instanceof Map) {
+			Map<?,?> map = (Map<?,?>) value;
+			String[] names = new String[map.size()];
+			int[] keySlots = new int[map.size()];
+			Node[] values = new Node[map.size()];
+			int i = 0;
+			for(Map.Entry<?,?> entry : map.entrySet()) {
+				Slot slot = keys.get(entry.getKey());
+				names[i] = (String) entry.getKey();
+				keySlots[i] = (slot != null) ? slot.index : -1;
+				values[i] = compile(entry.getValue(), keys);
+				i++;
+			}
+			return new MapNode(names, keySlots, values);
+		}
+		if(value instanceof List) {
+			List<?> list = (List<?>) value;
+			Node[] values = new Node[list.size()];
+			for(int i = 0; i < values.length; i++) {
+				values[i] = compile(list.get(i), keys);
+			}
+			return new ListNode(values);
+		}
+		return new ValueNode(value); // null, or an immutable String, Number or Boolean
+	}
+
+
+	/**
+	 * A placeholder, as returned by {@link Jay#nextArg()} while compiling. When the placeholder
+	 * is a key the parser stores String.valueOf(slot) in the Map: a String unique to this slot,
+	 * so that placeholder keys in one object do not replace each other, and which is found
+	 * again by identity so that it cannot be mistaken for a literal key.
+	 */
+	static final class Slot {
+
+		final int index;
+		final String key;
+
+		Slot(int index) {
+			this.index = index;
+			this.key = "\u0000?" + index;
+		}
+
+		@Override
+		public String toString() {
+			return key;
+		}
+
+	}
+
+	private static abstract class Node {
+		abstract Object bind(Object[] args);
+	}
+
+	private static final class ValueNode extends Node {
+		private final Object value;
+		ValueNode(Object value) {
+			this.value = value;
+		}
+		@Override
+		Object bind(Object[] args) {
+			return value;
+		}
+	}
+
+	private static final class SlotNode extends Node {
+		private final int index;
+		SlotNode(int index) {
+			this.index = index;
+		}
+		@Override
+		Object bind(Object[] args) {
+			return args[index];
+		}
+	}
+
+	private static final class ListNode extends Node {
+		private final Node[] values;
+		ListNode(Node[] values) {
+			this.values = values;
+		}
+		@Override
+		Object bind(Object[] args) {
+			List<Object> list = new ArrayList<Object>(values.length);
+			for(Node value : values) {
+				list.add(value.bind(args));
+			}
+			return list;
+		}
+	}
+
+	private static final class MapNode extends Node {
+		private final String[] keys;
+		private final int[] keySlots;
+		private final Node[] values;
+		MapNode(String[] keys, int[] keySlots, Node[] values) {
+			this.keys = keys;
+			this.keySlots = keySlots;
+			this.values = values;
+		}
+		@Override
+		Object bind(Object[] args) {
+			Map<String, Object> map = new LinkedHashMap<String, Object>((int) (keys.length / 0.75f) + 1);
+			for(int i = 0; i < keys.length; i++) {
+				String key = (keySlots[i] < 0) ? keys[i] : String.valueOf(args[keySlots[i]]);
+				map.put(key, values[i].bind(args));
+			}
+			return map;
+		}
+	}
+
+}
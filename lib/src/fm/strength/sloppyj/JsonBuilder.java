@@ -18,42 +18,81 @@ package fm.strength.sloppyj;
 import static fm.strength.sloppyj.Jay.ERR_NULL_KEY;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.Date;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import fm.strength.sloppyj.ClassModel.FieldModel;
+
 public class JsonBuilder {
 	
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	/**
+	 * the escape for each ASCII char, or null if it is written as is ('/' is escaped only after '<')
+	 */
+	private static final String[] ESCAPES = new String[0x80];
+	static {
+		for(char c = 0; c < ' '; c++) {
+			ESCAPES[c] = "\\u00" + HEX[c >> 4] + HEX[c & 0xF];
+		}
+		ESCAPES['\\'] = "\\\\";
+		ESCAPES['"']  = "\\\"";
+		ESCAPES['\b'] = "\\b";
+		ESCAPES['\t'] = "\\t";
+		ESCAPES['\n'] = "\\n";
+		ESCAPES['\f'] = "\\f";
+		ESCAPES['\r'] = "\\r";
+	}
+	
 	private final Jay jay;
+	private final JsonParser from;
+	private final char[] unicode = { '\\', 'u', '0', '0', '0', '0' };
 	private Writer w;
 	
 	public JsonBuilder(Jay jay) {
+		this(jay, null);
+	}
+	
+	/**
+	 * a builder that transcodes the JSON input of the given parser, rather than the Jay's data
+	 */
+	JsonBuilder(Jay jay, JsonParser from) {
 		this.jay = jay;
+		this.from = from;
 	}
 	
 	String toJson() {
+		JayBuffers buffers = jay.buffers();
 		try {
-			w = new StringWriter();
-	        appendValue(jay.data);
+			w = (buffers != null) ? buffers.writer() : new StringWriter();
+			appendData();
 			return w.toString();
 		} catch(IOException e) {
 			return null;
+		} finally {
+			if(buffers != null) buffers.release((JayBuffers.CharWriter) w);
 		}
 	}
 	
-	void sendJson(OutputStream out) throws IOException {
-		w = new OutputStreamWriter(out);
-		appendValue(jay.data);
+	void sendJson(Writer out) throws IOException {
+		w = out;
+		appendData();
 		w.flush();
 	}
 	
+	void append(char c) throws IOException {
+		w.write(c);
+	}
+	
+	private void appendData() throws IOException {
+		if(from != null) from.toJson(this);
+		else appendValue(jay.data);
+	}
+	
 
 	private void append(char s, Iterable<?> iter, char e) throws IOException {
 		w.write(s);
@@ -77,78 +116,121 @@ public class JsonBuilder {
         if(v == null) return false;
         String key = k.toString();
         if(jay.include(key)) {
-			if(sep) w.write(',');
-        	w.write('"');
-        	w.write(jay.mapToJson(key));
-        	w.write('"');
-        	w.write(':');
+        	appendKey(jay.mapToJson(key), sep);
 			appendValue(v);
 			return true;
         }
         return false;
     }
+    
+    void appendKey(String key, boolean sep) throws IOException {
+		if(sep) w.write(',');
+    	w.write('"');
+    	w.write(key);
+    	w.write('"');
+    	w.write(':');
+    }
 
 	private void appendArray(Object array) throws IOException {
 		w.write('[');
-		for(int i = 0; i < Array.getLength(array); i++) {
-			if(i != 0) w.write(',');
-			appendValue(Array.get(array, i));
+		if(array instanceof int[]) {
+			int[] a = (int[]) array;
+			for(int i = 0; i < a.length; i++) {
+				if(i != 0) w.write(',');
+				w.write(Integer.toString(a[i]));
+			}
+		}
+		else if(array instanceof long[]) {
+			long[] a = (long[]) array;
+			for(int i = 0; i < a.length; i++) {
+				if(i != 0) w.write(',');
+				w.write(Long.toString(a[i]));
+			}
+		}
+		else if(array instanceof double[]) {
+			double[] a = (double[]) array;
+			for(int i = 0; i < a.length; i++) {
+				if(i != 0) w.write(',');
+				w.write(Double.toString(a[i]));
+			}
+		}
+		else if(array instanceof float[]) {
+			float[] a = (float[]) array;
+			for(int i = 0; i < a.length; i++) {
+				if(i != 0) w.write(',');
+				w.write(Float.toString(a[i]));
+			}
+		}
+		else if(array instanceof boolean[]) {
+			boolean[] a = (boolean[]) array;
+			for(int i = 0; i < a.length; i++) {
+				if(i != 0) w.write(',');
+				w.write(a[i] ? "true" : "false");
+			}
+		}
+		else {
+			for(int i = 0; i < Array.getLength(array); i++) {
+				if(i != 0) w.write(',');
+				appendValue(Array.get(array, i));
+			}
 		}
 		w.write(']');
 	}
 	
     private void appendEscaped(String s) throws IOException {
     	w.write('"');
-    	if(s.length() > 0) {
-    		char b;
-    		char c = 0;
-    		for(int i = 0; i < s.length(); i++) {
-    			b = c; c = s.charAt(i);
-    			switch(c) {
-    			case '/':
-    				if(b == '<') w.write('\\');
-    				w.write(c);
-    				break;
-    			case '\\': w.write("\\\\"); break;
-    			case '"':  w.write("\\\""); break;
-    			case '\b': w.write("\\b"); break;
-    			case '\t': w.write("\\t"); break;
-    			case '\n': w.write("\\n"); break;
-    			case '\f': w.write("\\f"); break;
-    			case '\r': w.write("\\r"); break;
-    			default:
-    				if(c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
-    					String hex = Integer.toHexString(c);
-    					w.write("\\u");
-    					w.write("0000", 0, 4 - hex.length());
-    					w.write(hex);
-    				} else {
-    					w.write(c);
-    				}
+    	int run = 0; // start of the current run of chars that need no escaping
+    	for(int i = 0; i < s.length(); i++) {
+    		char c = s.charAt(i);
+    		if(c < 0x80) {
+    			String escape = ESCAPES[c];
+    			if(escape == null) {
+    				if(c != '/' || i == 0 || s.charAt(i-1) != '<') continue;
+    				escape = "\\/";
     			}
+    			if(run < i) w.write(s, run, i - run);
+    			w.write(escape);
+    		}
+    		else if(c < '\u00a0' || (c >= '\u2000' && c < '\u2100')) {
+    			if(run < i) w.write(s, run, i - run);
+    			unicode[2] = HEX[c >> 12];
+    			unicode[3] = HEX[(c >> 8) & 0xF];
+    			unicode[4] = HEX[(c >> 4) & 0xF];
+    			unicode[5] = HEX[c & 0xF];
+    			w.write(unicode);
+    		}
+    		else {
+    			continue;
     		}
+    		run = i + 1;
     	}
+    	if(run < s.length()) w.write(s, run, s.length() - run);
     	w.write('"');
     }
     
     private void appendModel(Object o) throws IOException {
     	w.write('{');
 		boolean sep = false;
-		for(Field field : o.getClass().getDeclaredFields()) {
-			if(!field.isSynthetic() && !Modifier.isStatic(field.getModifiers())) {
-				try {
-					field.setAccessible(true);
-					sep = append(field.getName(), field.get(o), sep) || sep;
-				} catch(IllegalAccessException e) {
-					// should never happen...
-					throw new RuntimeException(e);
+		ClassModel model = ClassModel.of(o.getClass());
+		String[] keys = jay.mapToJson(model);
+		for(int i = 0; i < keys.length; i++) {
+			FieldModel field = model.fields[i];
+			try {
+				Object v = field.accessor.get(o);
+				if(v != null && jay.include(field.name)) {
+					appendKey(keys[i], sep);
+					appendValue(v);
+					sep = true;
 				}
+			} catch(IllegalAccessException e) {
+				// should never happen...
+				throw new RuntimeException(e);
 			}
 		}
     	w.write('}');
     }
 	
-    private void appendValue(Object o) throws IOException {
+    void appendValue(Object o) throws IOException {
     	if(o == null) {
     		w.write("null");
     	} else {
@@ -166,7 +248,7 @@ public class JsonBuilder {
     	}
     }
     
-    private boolean isSystem(Object o) {
+    static boolean isSystem(Object o) {
     	String cname = o.getClass().getName();
     	return (cname.startsWith("java.") || cname.startsWith("android."));
     }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.util.Arrays;
+
+/**
+ * The extents of the arrays and objects of a document, recorded as they are skipped: a skip
+ * index, for jumping over a value that was skipped before instead of scanning it again. Values
+ * that are read are never built from it - they are scanned as usual.
+ * <p>
+ * Whether a quote or bracket is structural depends on where it appears in the sloppy grammar
+ * (in an unquoted key or value it is just text), so rather than recording raw character
+ * positions the index is filled by {@link JsonScanner} itself: each time it skips an array or
+ * object it records where its contents start and where it ends. Nothing is read ahead to build
+ * it, so a lookup that stops early still stops early. Containers are only recorded forward of
+ * the last one recorded, which keeps the index sorted without ever moving an entry.
+ * </p>
+ * <p>
+ * One index is kept per document by its {@link Jay}, so later passes over the same document (a
+ * second reader, or the parse of the elements of a parallel array after they are found) reuse
+ * what the earlier ones recorded. Only sources held entirely in memory can be indexed, as only
+ * they can be read more than once.
+ * </p>
+ */
+final class JsonIndex {
+
+	final Table arrays = new Table();
+	final Table objects = new Table();
+
+
+	/**
+	 * The containers of one kind, by the position the scanner is at when it starts to read
+	 * their contents (just after the bracket, or at the first key of an implicit object).
+	 * Containers are only added in document order, so the starts are sorted.
+	 */
+	static final class Table {
+
+		private long[] starts = new long[64];
+		private long[] ends = new long[64]; // 0 until the container is closed
+		private int size;
+
+		/**
+		 * @return the position just after the container starting at pos, or -1 if it is not in the index
+		 */
+		long end(long pos) {
+			if(size == 0 || pos > starts[size-1]) return -1;
+			int i = Arrays.binarySearch(starts, 0, size, pos);
+			return (i >= 0 && ends[i] > 0) ? ends[i] : -1;
+		}
+
+		/**
+		 * @return the slot to close once the end of the container is found, or -1 if it is not
+		 * past the last container recorded
+		 */
+		int open(long pos) {
+			if(size > 0 && pos <= starts[size-1]) return -1;
+			if(size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+			}
+			starts[size] = pos;
+			return size++;
+		}
+
+		void close(int slot, long end) {
+			ends[slot] = end;
+		}
+
+		int size() {
+			return size;
+		}
+
+	}
+
+}
@@ -15,60 +15,313 @@
  */
 package fm.strength.sloppyj;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
-public class JsonParser {
+public class JsonParser extends JsonScanner {
 	
 	public static final String ERR_CHAR_ARRAY = "java.util.String appears to have changed its implementation...";
+	
+	/** how far toJson reads a stream ahead, to find whether it holds several top-level values */
+	static final int READ_AHEAD = 1 << 16;
 
     
     private final Jay jay;
     private final boolean array;
-    private final String s;
-    private int pos;
+    private final Class<?> primitives;
+    private ArrayList<HashSet<String>> keySets; // the keys read so far, per object depth, by repeatsKey
+    private boolean checked; // writing inside an object that does not repeat any keys (with unique keys)
+    private ArrayList<HashSet<String>> selectedKeys; // the keys matched so far, per path step, by selectInObject
+    boolean firstKeys; // keep the first of repeated keys in the Maps built, as path lookups do
     
 	JsonParser(Jay jay, Class<?> type) {
+		this(jay, jay.data, type);
+	}
+	
+	JsonParser(Jay jay, Object json, Class<?> type) {
+		super(JsonSource.of(json));
 		this.jay = jay;
 		this.array = type.isArray();
-		this.s = jay.data.toString();
+		this.primitives = PrimitiveArray.supports(type) ? type : null;
+		this.index = jay.index(json, src);
+		this.recording = (index != null);
+		this.symbols = jay.symbols();
+		this.buffers = jay.buffers();
+	}
+	
+	private JsonParser(JsonParser parser) {
+		super(parser.src.share());
+		this.jay = parser.jay;
+		this.array = parser.array;
+		this.primitives = parser.primitives;
+		this.index = parser.index; // only looked up: the parts are parsed at the same time
+		this.firstKeys = parser.firstKeys;
+		this.symbols = parser.symbols;
+		this.buffers = jay.buffers(); // of the thread parsing this part of the input
 	}
 	
 	
 	Object toJava() {
+		ForkJoinPool pool = jay.pool();
+		if(pool != null && primitives == null && src.inMemory()) {
+			long[] elements = elements();
+			if(elements != null) {
+				Object[] results = new Object[elements.length];
+				int threshold = Math.max(1, elements.length / (pool.getParallelism() * 8));
+				pool.invoke(new ParseTask(this, elements, results, 0, elements.length, threshold));
+				return array ? results : new ArrayList<Object>(Arrays.asList(results));
+			}
+			pos = 0;
+		}
 		ArrayList<Object> result = new ArrayList<Object>(1);
 		while(ff()) {
-			result.add(getValue(null, null));
+			result.add(getTopValue());
 		}
 		if(result.size() == 0) return null;
 		if(result.size() == 1) return result.get(0);
 		return array ? result.toArray() : result;
 	}
 	
+	/**
+	 * @return true if there is another top-level value
+	 */
+	boolean hasNext() {
+		return ff();
+	}
 	
-	private boolean ff() {
-		return ff((char) 0) == ' ';
+	/**
+	 * @return the next top-level value; only valid after {@link #hasNext()} returns true
+	 */
+	Object next() {
+		return getTopValue();
+	}
+	
+	/**
+	 * @return the top-level value at pos: read straight into an array, when a primitive array was requested
+	 * (and null if the value is not an array that fits it), otherwise as getValue
+	 */
+	private Object getTopValue() {
+		if(primitives != null) {
+			if(src.at(pos) == '[') {
+				pos++;
+				return getPrimitiveArray(primitives);
+			}
+			skip();
+			return null;
+		}
+		return getValue(null, null);
+	}
+	
+	private Number getInteger(long start, Class<?> type) {
+		if(type == BigInteger.class) return new BigInteger(numberString(start, pos));
+		if(type == BigDecimal.class) return new BigDecimal(numberString(start, pos));
+		Number value = parseInteger(start, pos);
+		if((type == long.class || type == Long.class) && value instanceof Integer) return Long.valueOf(value.longValue());
+		return value;
+	}
+	
+	private Number getDecimal(long start, Class<?> type) {
+		if(type == BigDecimal.class) return new BigDecimal(numberString(start, pos));
+		if(jay.useBigDecimals() && type != double.class && type != Double.class && type != float.class && type != Float.class) {
+			return new BigDecimal(numberString(start, pos));
+		}
+		return parseDouble(start, pos);
+	}
+	
+	/**
+	 * @return the start of each element, if the input is a single top-level array; null otherwise
+	 */
+	private long[] elements() {
+		if(!ff() || src.at(pos) != '[') return null;
+		pos++;
+		long[] starts = new long[64];
+		int size = 0;
+		while(ff()) {
+			if(size == starts.length) starts = Arrays.copyOf(starts, size * 2);
+			starts[size++] = pos;
+			skip();
+			int c = ff(',');
+			if(c == ',') pos++;
+			else if(c != '[' && c != '{') break;
+		}
+		pos++;
+		if(ff()) return null; // more than one top-level value
+		return Arrays.copyOf(starts, size);
+	}
+	
+	/**
+	 * Find the value at the given path, parsing only along the path: siblings that are not
+	 * on it are skipped without being created, and nothing after the value is read. Only valid
+	 * when {@link #startsWithObject()} is true; when an object repeats a key, the first wins.
+	 */
+	Object toJava(String[] path) {
+		return findValue(null, null, path, 0);
+	}
+	
+	/**
+	 * @return true if the first value in the input is an object (explicit or implicit);
+	 * the position is left at the start of that value
+	 */
+	boolean startsWithObject() {
+		if(!ff()) return false;
+		switch(src.at(pos)) {
+		case '{':  return true;
+		case '[':
+		case '"':
+		case '\'': return false;
+		}
+		long start = pos;
+		scanRaw();
+		boolean object = ff(',') == ':';
+		pos = start;
+		return object;
 	}
 	
-	private char ff(char f) {
-		while(pos < s.length()) {
-			char c = s.charAt(pos);
-			if(c == f || c == ']' || c == '}' || c == ':' || c == ',') return c;
-			if(f == 0) {
-				if(!Character.isWhitespace(c)) return ' ';
+	/**
+	 * Add every value matching the path to the matches, parsing only the values that match:
+	 * everything else is skipped without being created. Each top-level value is matched separately.
+	 */
+	void select(JayPath path, List<Object> matches) {
+		while(ff()) {
+			select(path, 0, null, null, matches);
+		}
+	}
+	
+	static boolean isIndex(String segment) {
+		try {
+			Integer.parseInt(segment);
+			return true;
+		} catch(NumberFormatException e) {
+			return false;
+		}
+	}
+	
+	void toHandler(JayHandler handler) {
+		while(ff()) {
+			sendValue(handler);
+		}
+	}
+	
+	/**
+	 * Write the input to the builder as strict JSON, one token at a time, without creating Maps
+	 * and Lists: the same JSON that building the parsed value writes, except that repeated keys
+	 * are all written, in order (unless the Jay wants unique keys). Several top-level values are
+	 * written as an array, as toJava() returns them, or one per line as JSON Lines. To find whether
+	 * another value follows the first, the input is read ahead: all of it when it is in memory,
+	 * and up to READ_AHEAD units of a stream - a stream longer than that is written as a single
+	 * value without holding it, and another value after it is an error.
+	 */
+	void toJson(JsonBuilder out) throws IOException {
+		if(!ff()) {
+			out.appendValue(null);
+			return;
+		}
+		boolean lines = jay.useJsonLines();
+		boolean several = false;
+		boolean single = false;
+		if(!lines) {
+			long start = pos;
+			src.hold(start);
+			if(src.inMemory() || !src.has(start + READ_AHEAD)) {
+				skip();
+				several = ff();
 			} else {
-				if(c == '[' || c == '{') return c;
+				single = true;
+			}
+			pos = start;
+			src.release(start);
+		}
+		if(several) out.append('[');
+		writeTopValue(out);
+		while(ff()) {
+			if(single) throw new IllegalStateException(Jay.ERR_SEVERAL_VALUES);
+			out.append(lines ? '\n' : ',');
+			writeTopValue(out);
+		}
+		if(several) out.append(']');
+	}
+	
+	private void writeTopValue(JsonBuilder out) throws IOException {
+		if(jay.transcodes()) writeValue(out);
+		else out.appendValue(getTopValue());
+	}
+	
+	/**
+	 * Skip the value at pos, as skip() does, reading the keys of its objects as getObject() does.
+	 * @return true if one of its objects repeats a key that would be kept
+	 */
+	private boolean repeatsKey(int depth) {
+		switch(src.at(pos)) {
+		case '[':
+			pos++;
+			while(ff()) {
+				if(repeatsKey(depth)) return true;
+				int c = ff(',');
+				if(c == ',') pos++;
+				else if(c != '[' && c != '{') break;
 			}
 			pos++;
+			return false;
+		case '{':
+			pos++;
+			return objectRepeatsKey(depth);
+		case '"':
+		case '\'':
+			pos++;
+			scanString();
+			return false;
+		}
+		long start = pos;
+		scanRaw();
+		if(ff(',') == ':') {
+			pos = start;
+			return objectRepeatsKey(depth);
 		}
-		return 0;
+		return false;
 	}
+	
+	private boolean objectRepeatsKey(int depth) {
+		if(keySets == null) keySets = new ArrayList<HashSet<String>>();
+		if(depth == keySets.size()) keySets.add(new HashSet<String>());
+		HashSet<String> keys = keySets.get(depth);
+		keys.clear();
+		while(ff()) {
+			String key = getKey(null);
+			if(ff(':') == ':') {
+				pos++;
+				if(ff()) {
+					if(!jay.include(key)) skip();
+					else if(!keys.add(key) || repeatsKey(depth + 1)) return true;
+				}
+				if(ff(',') == ',') pos++;
+				else break;
+			}
+		}
+		pos++;
+		return false;
+	}
+	
 
 	private Object getArray(ObjectWrapper parent, String key) {
+		Class<?> type = (parent != null) ? parent.getArrayType(key) : null;
+		if(type != null) {
+			return getPrimitiveArray(type);
+		}
+		if(buffers != null) {
+			return getArray(parent, key, buffers);
+		}
 		ArrayList<Object> list = new ArrayList<Object>();
 		while(ff()) {
 			list.add(getValue(parent, key));
-			char c = ff(',');
+			int c = ff(',');
 			if(c == ',') pos++;
 			else if(c != '[' && c != '{') break;
 		}
@@ -77,14 +330,91 @@ public class JsonParser {
 		return array ? list.toArray() : list;
 	}
 
+	/**
+	 * getArray, collecting the elements on the recycled value stack so that the list can be
+	 * created at its exact size
+	 */
+	private Object getArray(ObjectWrapper parent, String key, JayBuffers buffers) {
+		int mark = buffers.mark();
+		try {
+			while(ff()) {
+				buffers.push(getValue(parent, key));
+				int c = ff(',');
+				if(c == ',') pos++;
+				else if(c != '[' && c != '{') break;
+			}
+			pos++;
+			return array ? buffers.array(mark) : buffers.list(mark);
+		} finally {
+			buffers.reset(mark);
+		}
+	}
+
+	/**
+	 * getArray for an int[], long[], double[], float[] or boolean[]: numbers are parsed straight into the
+	 * array, without being boxed. If an element does not fit (see {@link PrimitiveArray}), the rest of the
+	 * array is skipped and null is returned, as a value of the wrong type is skipped for any other field.
+	 */
+	private Object getPrimitiveArray(Class<?> type) {
+		PrimitiveArray values = new PrimitiveArray(type);
+		boolean fits = true;
+		while(ff()) {
+			if(fits) fits = addPrimitive(values);
+			else skip();
+			int c = ff(',');
+			if(c == ',') pos++;
+			else if(c != '[' && c != '{') break;
+		}
+		pos++;
+		return fits ? values.toArray() : null;
+	}
+	
+	private boolean addPrimitive(PrimitiveArray values) {
+		switch(src.at(pos)) {
+		case '[':
+		case '{':
+		case '"':
+		case '\'':
+			skip();
+			return false;
+		}
+		long start = pos;
+		int raw = scanRaw();
+		if(ff(',') == ':') {
+			pos = start;
+			skipObject();
+			return false;
+		}
+		if(raw == RAW_INTEGER) {
+			try {
+				return values.add(parseLong(start, pos));
+			} catch(NumberFormatException e) {
+				return values.add(parseDouble(start, pos)); // too large for a long: only fits a double[] or float[]
+			}
+		}
+		if(raw == RAW_DECIMAL) {
+			return values.add(parseDouble(start, pos));
+		}
+		String value = symbol(start, pos);
+		if("true".equals(value)) return values.add(true);
+		if("false".equals(value)) return values.add(false);
+		if("?".equals(value)) return values.add(jay.nextArg());
+		return false;
+	}
+	
 	private Object getObject(ObjectWrapper parent, String parentKey) {
 		ObjectWrapper wrapper = (parent != null) ? parent.get(parentKey) : jay.getWrapper();
 		while(ff()) {
-			String key = getKey();
+			String key = getKey(wrapper);
 			if(ff(':') == ':') {
 				pos++;
-				if(ff() && wrapper != null && jay.include(key)) {
-					wrapper.set(key, getValue(wrapper, key));
+				if(ff()) {
+					if(wrapper != null && jay.include(key)) {
+						Object value = getValue(wrapper, key); // read even when it is not kept, to use its args
+						if(!firstKeys || !wrapper.has(key)) wrapper.set(key, value);
+					} else {
+						skip();
+					}
 				}
 				if(ff(',') == ',') pos++;
 				else break;
@@ -94,30 +424,27 @@ public class JsonParser {
 		return (wrapper != null) ? wrapper.get() : null;
 	}
 	
-	private String getKey() {
+	private String getKey(ObjectWrapper wrapper) {
 		String key = null;
-		switch(s.charAt(pos)) {
+		switch(src.at(pos)) {
 		case '"':
 		case '\'':
 			pos++; key = getString();
 			break;
 		default:
-			int start = pos;
-			while(pos < s.length() && s.charAt(pos) != ':' && s.charAt(pos) != ',' && s.charAt(pos) != '}') pos++;
-			key = newString(start, pos);
+			long start = pos;
+			key = symbol(start, scanKey());
 		}
-		return "?".equals(key) ? String.valueOf(jay.nextArg()) : jay.mapFromJson(key);
+		return "?".equals(key) ? String.valueOf(jay.nextArg()) : jay.mapFromJson(key, wrapper);
 	}
 	
 	private String getString() {
-		int start = pos;
-		char c = s.charAt(pos-1);
-		while(pos < s.length() && (s.charAt(pos) != c || s.charAt(pos-1) == '\\')) pos++;
-		return newString(start, pos++);
+		long start = pos;
+		return symbol(start, scanString());
 	}
 	
 	private Object getValue(ObjectWrapper parent, String key) {
-		switch(s.charAt(pos)) {
+		switch(src.at(pos)) {
 		case '[':  pos++; return getArray(parent, key);
 		case '{':  pos++; return getObject(parent, key);
 		default:
@@ -126,102 +453,433 @@ public class JsonParser {
 	}
 	
 	private Object getRawValue(ObjectWrapper parent, String key) {
-		switch(s.charAt(pos)) {
+		switch(src.at(pos)) {
 		case '"':  pos++; return getString();
 		case '\'': pos++; return getString();
 		}
 		
-		int start = pos;
-		boolean num = true;
-		boolean dec = false;
-		boolean exp = false;
+		long start = pos;
+		int raw = scanRaw();
+
+		if(ff(',') == ':') {
+			pos = start;
+			return getObject(parent, key);
+		} else {
+			Class<?> type = (raw != RAW_TEXT && parent != null) ? parent.getType(key) : null;
+			return getRawValue(start, raw, type);
+		}
+	}
+	
+	/**
+	 * @return the unquoted value from start to pos, which scanRaw found to be of the given raw type
+	 */
+	private Object getRawValue(long start, int raw, Class<?> type) {
+		if(raw != RAW_TEXT) {
+			return (raw == RAW_INTEGER) ? getInteger(start, type) : getDecimal(start, type);
+		}
+		String value = symbol(start, pos);
+		if(value.length() > 0) {
+			if("?".equals(value)) return jay.nextArg();
+			if("null".equals(value)) return null;
+			if("true".equals(value)) return true;
+			if("false".equals(value)) return false;
+			return value;
+		}
+		return null;
+	}
+
+
+	private void sendArray(JayHandler handler) {
+		handler.startArray();
+		while(ff()) {
+			sendValue(handler);
+			int c = ff(',');
+			if(c == ',') pos++;
+			else if(c != '[' && c != '{') break;
+		}
+		pos++;
+		handler.endArray();
+	}
+	
+	private void sendObject(JayHandler handler) {
+		handler.startObject();
+		while(ff()) {
+			String key = getKey(null);
+			if(ff(':') == ':') {
+				pos++;
+				if(ff()) {
+					if(jay.include(key)) {
+						handler.key(key);
+						sendValue(handler);
+					} else {
+						skip();
+					}
+				}
+				if(ff(',') == ',') pos++;
+				else break;
+			}
+		}
+		pos++;
+		handler.endObject();
+	}
+	
+	private void sendValue(JayHandler handler) {
+		switch(src.at(pos)) {
+		case '[':  pos++; sendArray(handler); return;
+		case '{':  pos++; sendObject(handler); return;
+		case '"':
+		case '\'':
+			pos++;
+			handler.value(getString());
+			return;
+		}
+		
+		long start = pos;
+		int raw = scanRaw();
 		
-		do {
-			switch(s.charAt(pos)) {
-			case '-':
-				if(pos != start) num = false;
-				break;
-			case '.':
-				if(dec) num = false;
-				else dec = true;
-				break;
-			case '0': case '1': case '2': case '3': case '4':
-			case '5': case '6': case '7': case '8': case '9':
-				// number still true
-				break;
-			case 'e': case 'E':
-				if(!exp && pos != start && pos+1 < s.length()) {
-					char p = s.charAt(pos-1);
-					char n = s.charAt(++pos);
-					if(Character.isDigit(p) && (n == '+' || n == '-')) {
-						exp = true;
-						break;
+		if(ff(',') == ':') {
+			pos = start;
+			sendObject(handler);
+		}
+		else if(raw == RAW_INTEGER) {
+			Number value = parseInteger(start, pos);
+			if(value instanceof Integer) handler.value(value.intValue());
+			else if(value instanceof Long) handler.value(value.longValue());
+			else handler.value((BigInteger) value);
+		}
+		else if(raw == RAW_DECIMAL) {
+			if(jay.useBigDecimals()) handler.value(new BigDecimal(numberString(start, pos)));
+			else handler.value(parseDouble(start, pos));
+		}
+		else {
+			String value = symbol(start, pos);
+			if(value.length() == 0) handler.nullValue();
+			else if("?".equals(value)) sendArg(handler, jay.nextArg());
+			else if("null".equals(value)) handler.nullValue();
+			else if("true".equals(value)) handler.value(true);
+			else if("false".equals(value)) handler.value(false);
+			else handler.value(value);
+		}
+	}
+	
+	private void writeArray(JsonBuilder out) throws IOException {
+		out.append('[');
+		boolean sep = false;
+		while(ff()) {
+			if(sep) out.append(',');
+			writeValue(out);
+			sep = true;
+			int c = ff(',');
+			if(c == ',') pos++;
+			else if(c != '[' && c != '{') break;
+		}
+		pos++;
+		out.append(']');
+	}
+	
+	/**
+	 * Write the object at pos. When the Jay wants unique keys, and it is not inside an object that
+	 * has been read ahead already, it is read ahead first (and held, in a stream): an object that
+	 * repeats a key is parsed and then built instead, so that the last of the keys wins, as in a Map.
+	 */
+	private void writeObject(JsonBuilder out) throws IOException {
+		if(checked || !jay.useUniqueKeys()) {
+			writeMembers(out);
+			return;
+		}
+		long start = pos;
+		src.hold(start);
+		boolean repeats = objectRepeatsKey(0);
+		pos = start;
+		src.release(start);
+		if(repeats) {
+			out.appendValue(getObject(null, null));
+		} else {
+			checked = true;
+			writeMembers(out);
+			checked = false;
+		}
+	}
+	
+	private void writeMembers(JsonBuilder out) throws IOException {
+		out.append('{');
+		boolean sep = false;
+		while(ff()) {
+			String key = getKey(null);
+			if(ff(':') == ':') {
+				pos++;
+				if(ff()) {
+					if(jay.include(key)) {
+						sep = writeMember(out, key, sep) || sep;
+					} else {
+						skip();
 					}
 				}
-				num = false;
-				break;
-			default:
-				num = false;
-				break;
+				if(ff(',') == ',') pos++;
+				else break;
 			}
-			if(pos > start) {
-				if(Character.isWhitespace(s.charAt(pos-1))) num = false;
+		}
+		pos++;
+		out.append('}');
+	}
+	
+	/**
+	 * @return true if the member was written; like a null value in a Map, a null value is left out
+	 */
+	private boolean writeMember(JsonBuilder out, String key, boolean sep) throws IOException {
+		Object value;
+		switch(src.at(pos)) {
+		case '[':
+		case '{':
+			out.appendKey(jay.mapToJson(key), sep);
+			writeValue(out);
+			return true;
+		case '"':
+		case '\'':
+			pos++;
+			value = getString();
+			break;
+		default:
+			long start = pos;
+			int raw = scanRaw();
+			if(ff(',') == ':') {
+				pos = start;
+				out.appendKey(jay.mapToJson(key), sep);
+				writeObject(out);
+				return true;
 			}
+			value = getRawValue(start, raw, null);
+			if(value == null) return false;
+		}
+		out.appendKey(jay.mapToJson(key), sep);
+		out.appendValue(value);
+		return true;
+	}
+	
+	private void writeValue(JsonBuilder out) throws IOException {
+		switch(src.at(pos)) {
+		case '[':  pos++; writeArray(out); return;
+		case '{':  pos++; writeObject(out); return;
+		case '"':
+		case '\'':
 			pos++;
-		} while(num && ff() && s.charAt(pos) != ',');
-
+			out.appendValue(getString());
+			return;
+		}
+		
+		long start = pos;
+		int raw = scanRaw();
+		
 		if(ff(',') == ':') {
 			pos = start;
-			return getObject(parent, key);
+			writeObject(out);
 		} else {
-			String value = newString(start, pos);
-			if(value.length() > 0) {
-				if(num) {
-					if(dec || exp) return Double.valueOf(value);
-					if(parent != null) {
-						Class<?> type = parent.getType(key);
-						if(type == long.class || type == Long.class) return Long.valueOf(value);
+			out.appendValue(getRawValue(start, raw, null));
+		}
+	}
+	
+	private static void sendArg(JayHandler handler, Object arg) {
+		if(arg == null) handler.nullValue();
+		else if(arg instanceof Integer || arg instanceof Short || arg instanceof Byte) handler.value(((Number) arg).intValue());
+		else if(arg instanceof Long) handler.value(((Long) arg).longValue());
+		else if(arg instanceof BigInteger) handler.value((BigInteger) arg);
+		else if(arg instanceof BigDecimal) handler.value((BigDecimal) arg);
+		else if(arg instanceof Number) handler.value(((Number) arg).doubleValue());
+		else if(arg instanceof Boolean) handler.value(((Boolean) arg).booleanValue());
+		else handler.value(String.valueOf(arg));
+	}
+
+
+	private Object findValue(ObjectWrapper parent, String key, String[] path, int i) {
+		if(i == path.length) {
+			return getValue(parent, key);
+		}
+		switch(src.at(pos)) {
+		case '[':  pos++; return findInArray(parent, key, path, i);
+		case '{':  pos++; return findInObject(parent, key, path, i);
+		case '"':
+		case '\'': return null;
+		}
+		long start = pos;
+		scanRaw();
+		if(ff(',') == ':') {
+			pos = start;
+			return findInObject(parent, key, path, i);
+		}
+		return null;
+	}
+	
+	private Object findInArray(ObjectWrapper parent, String key, String[] path, int i) {
+		boolean numeric = isIndex(path[i]);
+		int index = numeric ? Integer.parseInt(path[i]) : -1;
+		int size = 0;
+		while(ff()) {
+			if(numeric) {
+				if(size++ == index) return findValue(parent, key, path, i+1);
+				skip();
+			} else {
+				switch(src.at(pos)) {
+				case '[':
+					pos++; skipArray();
+					break;
+				case '{':
+					pos++; return findInObject(parent, key, path, i);
+				default:
+					long start = pos;
+					if(src.at(pos) != '"' && src.at(pos) != '\'') {
+						scanRaw();
+						boolean object = ff(',') == ':';
+						pos = start;
+						if(object) return findInObject(parent, key, path, i);
 					}
-					return Integer.valueOf(value);
+					Object value = getValue(parent, key);
+					if(path[i].equals(value)) return (i+1 == path.length) ? value : null;
 				}
-				if("?".equals(value)) return jay.nextArg();
-				if("null".equals(value)) return null;
-				if("true".equals(value)) return true;
-				if("false".equals(value)) return false;
-				return value;
 			}
-			return null;
+			int c = ff(',');
+			if(c == ',') pos++;
+			else if(c != '[' && c != '{') break;
+		}
+		if(numeric) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return null;
+	}
+	
+	private Object findInObject(ObjectWrapper parent, String parentKey, String[] path, int i) {
+		ObjectWrapper wrapper = (parent != null) ? parent.get(parentKey) : jay.getWrapper();
+		while(ff()) {
+			String key = getKey(wrapper);
+			if(ff(':') == ':') {
+				pos++;
+				if(ff()) {
+					if(wrapper != null && path[i].equals(key) && jay.include(key)) {
+						return findValue(wrapper, key, path, i+1);
+					}
+					skip();
+				}
+				if(ff(',') == ',') pos++;
+				else break;
+			}
+		}
+		return null;
+	}
+
+
+	private void select(JayPath path, int i, ObjectWrapper parent, String key, List<Object> matches) {
+		if(i == path.steps.length) {
+			matches.add(getValue(parent, key));
+			return;
+		}
+		switch(src.at(pos)) {
+		case '[':  pos++; selectInArray(path, i, parent, key, matches); return;
+		case '{':  pos++; selectInObject(path, i, parent, key, matches); return;
+		case '"':
+		case '\'': pos++; scanString(); return;
+		}
+		long start = pos;
+		scanRaw();
+		if(ff(',') == ':') {
+			pos = start;
+			selectInObject(path, i, parent, key, matches);
+		}
+	}
+	
+	private void selectInArray(JayPath path, int i, ObjectWrapper parent, String key, List<Object> matches) {
+		JayPath.Step step = path.steps[i];
+		int index = 0;
+		while(ff()) {
+			if(step.matches(index++)) {
+				select(path, i+1, parent, key, matches);
+			} else {
+				skip();
+			}
+			int c = ff(',');
+			if(c == ',') pos++;
+			else if(c != '[' && c != '{') break;
+		}
+		pos++;
+	}
+	
+	/**
+	 * As in {@link #toJava(String[])}, only the first of repeated keys is matched.
+	 */
+	private void selectInObject(JayPath path, int i, ObjectWrapper parent, String parentKey, List<Object> matches) {
+		JayPath.Step step = path.steps[i];
+		ObjectWrapper wrapper = (parent != null) ? parent.get(parentKey) : jay.getWrapper();
+		HashSet<String> selected = (step.name == null) ? selectedKeys(i) : null;
+		boolean found = false;
+		while(ff()) {
+			String key = getKey(wrapper);
+			if(ff(':') == ':') {
+				pos++;
+				if(ff()) {
+					if(wrapper != null && jay.include(key) && step.matches(key)
+							&& ((selected != null) ? selected.add(key) : !found)) {
+						found = true;
+						select(path, i+1, wrapper, key, matches);
+					} else {
+						skip();
+					}
+				}
+				if(ff(',') == ',') pos++;
+				else break;
+			}
 		}
+		pos++;
+	}
+	
+	/**
+	 * @return the (emptied) set of keys matched in an object by step i - steps do not nest
+	 * within themselves, so each has one set, reused for every object it is applied to
+	 */
+	private HashSet<String> selectedKeys(int i) {
+		if(selectedKeys == null) selectedKeys = new ArrayList<HashSet<String>>();
+		while(selectedKeys.size() <= i) selectedKeys.add(new HashSet<String>());
+		HashSet<String> keys = selectedKeys.get(i);
+		keys.clear();
+		return keys;
 	}
 
-    private String newString(int start, int end) {
-    	StringBuilder sb = new StringBuilder(end-start);
-    	for(int i = start; i < end; i++) {
-    		char c = s.charAt(i);
-    		if(c == '\\') {
-    			i++;
-    			if(i < end) {
-    				c = s.charAt(i);
-    				switch(c) {
-    				case 'b': case 't': case 'n': case 'f': case 'r':
-    				case '"': case '/': case '\'': case '\\': 
-    					sb.append(c);
-    					break;
-    				case 'u':
-    					if(i+4 < end) {
-    						sb.append((char)Integer.parseInt(s.substring(i+1, i+5), 16));
-    						i = i+4;
-    						break;
-    					} // else fall through and throw exception
-    				default:
-    					throw new IllegalArgumentException("illegal escape");
-    				}
-    			}
-    		} else {
-    			sb.append(c);
-    		}
-    	}
-    	return sb.toString().trim();
-    }
+	/**
+	 * Parses a range of the elements of a top-level array, each leaf with its own parser
+	 * over the shared source, writing each element into its slot in the results.
+	 */
+	private static class ParseTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final JsonParser parser;
+		private final long[] elements;
+		private final Object[] results;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		ParseTask(JsonParser parser, long[] elements, Object[] results, int from, int to, int threshold) {
+			this.parser = parser;
+			this.elements = elements;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= threshold) {
+				JsonParser leaf = new JsonParser(parser);
+				for(int i = from; i < to; i++) {
+					leaf.pos = elements[i];
+					results[i] = leaf.getValue(null, null);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ParseTask(parser, elements, results, from, mid, threshold),
+						  new ParseTask(parser, elements, results, mid, to, threshold));
+			}
+		}
+
+	}
 
 }
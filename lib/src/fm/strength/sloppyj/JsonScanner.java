@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.math.BigInteger;
+
+/**
+ * The lexical rules of the sloppy grammar, shared by {@link JsonParser} and {@link JayReader}:
+ * how far each kind of token extends, and how to skip whole values without creating them.
+ */
+class JsonScanner {
+
+	static final int RAW_TEXT = 0;
+	static final int RAW_INTEGER = 1;
+	static final int RAW_DECIMAL = 2;
+
+	final JsonSource src;
+	long pos;
+	JsonIndex index;
+	boolean recording; // add the arrays and objects skipped to the index (false where it is shared between threads)
+	JaySymbols symbols;
+	JayBuffers buffers;
+
+	JsonScanner(JsonSource src) {
+		this.src = src;
+	}
+
+
+	/**
+	 * skip whitespace
+	 * @return true if positioned at the start of a token (not at the end of the input, or at ']', '}', ':' or ',')
+	 */
+	final boolean ff() {
+		return ff((char) 0) == ' ';
+	}
+
+	/**
+	 * skip forward to the next f, or to the next ']', '}', ':', ',', '[' or '{'
+	 * (or, when f is 0, to the next non-whitespace character)
+	 * @return the character found; ' ' for any other non-whitespace when f is 0; 0 at the end of the input
+	 */
+	final int ff(char f) {
+		while(src.has(pos)) {
+			int c = src.at(pos);
+			if(c == f || c == ']' || c == '}' || c == ':' || c == ',') return c;
+			if(f == 0) {
+				if(!Character.isWhitespace(c)) {
+					if(c < 0x80) return ' ';
+					int width = src.whitespace(pos);
+					if(width == 0) return ' ';
+					pos += width - 1;
+				}
+			} else {
+				if(c == '[' || c == '{') return c;
+			}
+			pos++;
+		}
+		return 0;
+	}
+
+	/**
+	 * scan an unquoted key, from pos to the next ':', ',' or '}'
+	 * @return the end of the key
+	 */
+	final long scanKey() {
+		src.mark(pos);
+		while(src.has(pos) && src.at(pos) != ':' && src.at(pos) != ',' && src.at(pos) != '}') pos++;
+		return pos;
+	}
+
+	/**
+	 * scan an unquoted value from pos, as far as the number rules allow; the caller
+	 * then calls ff(',') to find the end of the value
+	 * @return one of RAW_TEXT, RAW_INTEGER or RAW_DECIMAL
+	 */
+	final int scanRaw() {
+		src.mark(pos);
+		long start = pos;
+		boolean num = true;
+		boolean dec = false;
+		boolean exp = false;
+		long next = pos;
+
+		do {
+			if(pos != next) num = false; // whitespace was skipped
+			switch(src.at(pos)) {
+			case '-':
+				if(pos != start) num = false;
+				break;
+			case '.':
+				if(dec) num = false;
+				else dec = true;
+				break;
+			case '0': case '1': case '2': case '3': case '4':
+			case '5': case '6': case '7': case '8': case '9':
+				// number still true
+				break;
+			case 'e': case 'E':
+				if(!exp && pos != start && src.has(pos+1)) {
+					int p = src.at(pos-1);
+					int n = src.at(++pos);
+					if(Character.isDigit(p) && (n == '+' || n == '-')) {
+						exp = true;
+						break;
+					}
+				}
+				num = false;
+				break;
+			default:
+				num = false;
+				break;
+			}
+			pos++;
+			next = pos;
+		} while(num && ff() && src.at(pos) != ',');
+
+		if(!num) return RAW_TEXT;
+		return (dec || exp) ? RAW_DECIMAL : RAW_INTEGER;
+	}
+
+	/**
+	 * scan a quoted string, from pos (just after the opening quote) to just after the closing quote
+	 * @return the end of the string's contents
+	 */
+	final long scanString() {
+		src.mark(pos-1);
+		int c = src.at(pos-1);
+		while(src.has(pos) && (src.at(pos) != c || src.at(pos-1) == '\\')) pos++;
+		return pos++;
+	}
+
+	/**
+	 * skip the value at pos - the same input that JsonParser would read as a value - without creating it
+	 */
+	final void skip() {
+		switch(src.at(pos)) {
+		case '[':  pos++; skipArray(); return;
+		case '{':  pos++; skipObject(); return;
+		case '"':
+		case '\'': pos++; scanString(); return;
+		}
+		long start = pos;
+		scanRaw();
+		if(ff(',') == ':') {
+			pos = start;
+			skipObject();
+		}
+	}
+
+	final void skipArray() {
+		int slot = -1;
+		if(index != null) {
+			long end = index.arrays.end(pos);
+			if(end >= 0) {
+				pos = end;
+				return;
+			}
+			if(recording) slot = index.arrays.open(pos);
+		}
+		while(ff()) {
+			skip();
+			int c = ff(',');
+			if(c == ',') pos++;
+			else if(c != '[' && c != '{') break;
+		}
+		pos++;
+		if(slot >= 0) index.arrays.close(slot, pos);
+	}
+
+	final void skipObject() {
+		int slot = -1;
+		if(index != null) {
+			long end = index.objects.end(pos);
+			if(end >= 0) {
+				pos = end;
+				return;
+			}
+			if(recording) slot = index.objects.open(pos);
+		}
+		while(ff()) {
+			skipKey();
+			if(ff(':') == ':') {
+				pos++;
+				if(ff()) skip();
+				if(ff(',') == ',') pos++;
+				else break;
+			}
+		}
+		pos++;
+		if(slot >= 0) index.objects.close(slot, pos);
+	}
+
+	final void skipKey() {
+		switch(src.at(pos)) {
+		case '"':
+		case '\'':
+			pos++; scanString();
+			break;
+		default:
+			scanKey();
+		}
+	}
+
+	/**
+	 * parse the RAW_INTEGER value from start to end directly from the source, without creating a String
+	 * @throws NumberFormatException if the value does not fit in a long
+	 */
+	final long parseLong(long start, long end) {
+		boolean negative = src.at(start) == '-';
+		long i = negative ? start+1 : start;
+		if(i == end || !Character.isDigit(src.at(i))) {
+			throw new NumberFormatException(newString(start, end));
+		}
+		long value = 0; // accumulated negatively, so that Long.MIN_VALUE fits
+		for(; i < end; i++) {
+			int d = src.at(i) - '0';
+			if(d < 0 || d > 9) break; // trailing whitespace
+			if(value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + d) {
+				throw new NumberFormatException(newString(start, end));
+			}
+			value = value * 10 - d;
+		}
+		if(negative) return value;
+		if(value == Long.MIN_VALUE) throw new NumberFormatException(newString(start, end));
+		return -value;
+	}
+
+	/**
+	 * parse the RAW_INTEGER value from start to end directly from the source
+	 * @return an Integer; or a Long or BigInteger if the value is too large
+	 */
+	final Number parseInteger(long start, long end) {
+		long value;
+		try {
+			value = parseLong(start, end);
+		} catch(NumberFormatException e) {
+			return new BigInteger(numberString(start, end)); // still throws if not a number at all (eg: "-")
+		}
+		if(value == (int) value) return Integer.valueOf((int) value);
+		return Long.valueOf(value);
+	}
+
+	/**
+	 * parse the RAW_DECIMAL value from start to end. Values with up to 15 significant digits and
+	 * a power of ten within 10^22 (nearly all real data) are read directly from the source: the
+	 * digits and the power of ten are both exact doubles, so a single multiply or divide is correctly
+	 * rounded. Anything else goes through Double.parseDouble.
+	 */
+	final double parseDouble(long start, long end) {
+		long i = start;
+		boolean negative = src.at(i) == '-';
+		if(negative) i++;
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		int exponent = 0;
+		boolean any = false;
+		boolean dot = false;
+		for(; i < end; i++) {
+			int c = src.at(i);
+			if(c >= '0' && c <= '9') {
+				any = true;
+				if(mantissa != 0 || c != '0') {
+					if(++digits > 15) return slowDouble(start, end);
+					mantissa = mantissa * 10 + (c - '0');
+				}
+				if(dot) scale--;
+			}
+			else if(c == '.') {
+				dot = true;
+			}
+			else if(c == 'e' || c == 'E') {
+				if(!any || i+2 >= end) return slowDouble(start, end);
+				boolean minus = src.at(++i) == '-';
+				int n = 0;
+				int d = 0;
+				while(++i < end && (c = src.at(i)) >= '0' && c <= '9') {
+					if(++d > 3) return slowDouble(start, end);
+					n = n * 10 + (c - '0');
+				}
+				if(d == 0) return slowDouble(start, end);
+				exponent = minus ? -n : n;
+				break;
+			}
+			else {
+				break; // trailing whitespace
+			}
+		}
+		for(; i < end; i++) {
+			int c = src.at(i);
+			if(!Character.isWhitespace(c)) {
+				int width = (c < 0x80) ? 0 : src.whitespace(i);
+				if(width == 0) return slowDouble(start, end);
+				i += width - 1;
+			}
+		}
+		if(!any) return slowDouble(start, end);
+		int power = scale + exponent;
+		double value = mantissa;
+		if(mantissa != 0 && power != 0) {
+			if(power > 0 && power < POWERS_OF_TEN.length) value *= POWERS_OF_TEN[power];
+			else if(power < 0 && -power < POWERS_OF_TEN.length) value /= POWERS_OF_TEN[-power];
+			else return slowDouble(start, end);
+		}
+		return negative ? -value : value;
+	}
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private double slowDouble(long start, long end) {
+		return Double.parseDouble(numberString(start, end));
+	}
+
+	/**
+	 * @return the text of the number from start to end, without trailing whitespace: newString only trims
+	 * ASCII whitespace, and the number rules also allow other whitespace (such as U+3000) after a number
+	 */
+	final String numberString(long start, long end) {
+		String s = newString(start, end);
+		int length = s.length();
+		while(length > 0 && Character.isWhitespace(s.charAt(length-1))) length--;
+		return s.substring(0, length);
+	}
+
+	/**
+	 * the same String as newString(start, end), but canonical when there is a symbol table
+	 * and the text is eligible for it
+	 */
+	final String symbol(long start, long end) {
+		if(symbols != null) {
+			String s = symbols.get(src, start, end);
+			if(s != null) return s;
+		}
+		return newString(start, end);
+	}
+
+    final String newString(long start, long end) {
+    	StringBuilder sb = (buffers != null) ? buffers.chars() : new StringBuilder((int) (end-start));
+    	for(long i = start; i < end; i++) {
+    		int c = src.at(i);
+    		if(c == '\\') {
+    			i++;
+    			if(i < end) {
+    				c = src.at(i);
+    				switch(c) {
+    				case 'b': case 't': case 'n': case 'f': case 'r':
+    				case '"': case '/': case '\'': case '\\':
+    					sb.append((char) c);
+    					break;
+    				case 'u':
+    					if(i+4 < end) {
+    						sb.append(hex(i+1));
+    						i = i+4;
+    						break;
+    					} // else fall through and throw exception
+    				default:
+    					throw new IllegalArgumentException("illegal escape");
+    				}
+    			}
+    		} else if(c < 0x80) {
+    			sb.append((char) c);
+    		} else {
+    			i = src.append(sb, i, end);
+    		}
+    	}
+    	String s = sb.toString().trim();
+    	if(buffers != null) buffers.release(sb);
+    	return s;
+    }
+
+    private char hex(long start) {
+    	char[] digits = new char[4];
+    	for(int i = 0; i < 4; i++) {
+    		digits[i] = (char) src.at(start+i);
+    	}
+    	return (char) Integer.parseInt(new String(digits), 16);
+    }
+
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import static fm.strength.sloppyj.Jay.ERR_READ;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The input of a {@link JsonParser}: random access to the characters of a JSON document
+ * by absolute position.
+ * <p>
+ * Byte sources (byte[], ByteBuffer, InputStream) are UTF-8 and are not decoded up front:
+ * {@link #at(long)} returns the raw byte, which is enough to find the structure, numbers
+ * and keywords (all ASCII), and only the contents of strings are decoded, by
+ * {@link #append(StringBuilder, long, long)}, as they are materialized.
+ * </p>
+ * <p>
+ * Sources that read from a stream only keep a window of the input in memory. The parser
+ * calls {@link #mark(long)} at the start of each token, and positions before the mark
+ * may be discarded the next time the source needs to read.
+ * </p>
+ */
+abstract class JsonSource {
+
+	static final int BUFFER_SIZE = 8192;
+
+	static boolean isJson(Object data) {
+		return (data instanceof String) || (data instanceof JsonSource)
+				|| (data instanceof byte[]) || (data instanceof ByteBuffer)
+				|| (data instanceof Reader) || (data instanceof InputStream);
+	}
+
+	static JsonSource of(Object data) {
+		if(data instanceof JsonSource)  return (JsonSource) data;
+		if(data instanceof byte[])      return new ArraySource((byte[]) data, 0, ((byte[]) data).length);
+		if(data instanceof ByteBuffer)  return of((ByteBuffer) data);
+		if(data instanceof Reader)      return new ReaderSource((Reader) data, BUFFER_SIZE);
+		if(data instanceof InputStream) return new StreamSource((InputStream) data, BUFFER_SIZE);
+		return new StringSource(data.toString());
+	}
+
+	private static JsonSource of(ByteBuffer buffer) {
+		if(buffer.hasArray()) {
+			return new ArraySource(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+		return new BufferSource(buffer);
+	}
+
+
+	/**
+	 * @return true if the input has a character at the given position
+	 */
+	abstract boolean has(long pos);
+
+	/**
+	 * @return the character at the given position, which must not be before the current mark
+	 */
+	abstract int at(long pos);
+
+	/**
+	 * @return true if the whole input is held in memory (or mapped), so that it can be read
+	 * more than once; false for sources that read from a stream
+	 */
+	boolean inMemory() {
+		return true;
+	}
+
+	/**
+	 * @return a source over the same input that can be read on another thread, for in-memory
+	 * sources that keep per-reader state
+	 */
+	JsonSource share() {
+		return this;
+	}
+
+	/**
+	 * Indicates that the parser will not read before the given position again.
+	 */
+	void mark(long pos) {
+		// default: the whole input is in memory
+	}
+
+	/**
+	 * Keeps the input from the given position, whatever the parser marks, until {@link #release(long)}:
+	 * for reading ahead and then going back.
+	 */
+	void hold(long pos) {
+		// default: the whole input is in memory
+	}
+
+	/**
+	 * Ends a {@link #hold(long)}: the parser has gone back to the given position, and marks from there.
+	 */
+	void release(long pos) {
+		// default: the whole input is in memory
+	}
+
+	/**
+	 * Appends the character at the given position, which is not ASCII, to the builder.
+	 * @return the position of the last input unit used (multi-byte characters use more than one)
+	 */
+	long append(StringBuilder sb, long pos, long end) {
+		sb.append((char) at(pos));
+		return pos;
+	}
+
+	/**
+	 * @return the number of input units taken by the whitespace character at the given position,
+	 * if it is both whitespace and not ASCII; otherwise 0
+	 */
+	int whitespace(long pos) {
+		return 0;
+	}
+
+
+	static final class StringSource extends JsonSource {
+
+		private final String s;
+
+		StringSource(String s) {
+			this.s = s;
+		}
+
+		@Override
+		boolean has(long pos) {
+			return pos < s.length();
+		}
+
+		@Override
+		int at(long pos) {
+			return s.charAt((int) pos);
+		}
+
+	}
+
+	static final class ReaderSource extends JsonSource {
+
+		private final Reader reader;
+		private char[] buf;
+		private long offset;
+		private int limit;
+		private long mark;
+		private long hold = Long.MAX_VALUE;
+		private boolean eof;
+
+		ReaderSource(Reader reader, int size) {
+			this.reader = reader;
+			this.buf = new char[size];
+		}
+
+		@Override
+		boolean has(long pos) {
+			while(pos >= offset + limit) {
+				if(!fill()) return false;
+			}
+			return true;
+		}
+
+		@Override
+		int at(long pos) {
+			if(pos >= offset + limit) has(pos);
+			return buf[(int) (pos - offset)];
+		}
+
+		@Override
+		boolean inMemory() {
+			return false;
+		}
+
+		@Override
+		void mark(long pos) {
+			if(pos > mark) mark = pos;
+		}
+
+		@Override
+		void hold(long pos) {
+			hold = pos;
+		}
+
+		@Override
+		void release(long pos) {
+			hold = Long.MAX_VALUE;
+			mark = pos;
+		}
+
+		private boolean fill() {
+			if(eof) {
+				return false;
+			}
+			int discard = (int) (Math.min(Math.min(mark, hold), offset + limit) - offset);
+			if(discard > 0) {
+				System.arraycopy(buf, discard, buf, 0, limit - discard);
+				offset += discard;
+				limit -= discard;
+			}
+			if(limit == buf.length) {
+				// a single token is larger than the buffer
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+			try {
+				int n = reader.read(buf, limit, buf.length - limit);
+				if(n < 0) {
+					eof = true;
+					return false;
+				}
+				limit += n;
+				return true;
+			} catch(IOException e) {
+				throw new IllegalStateException(ERR_READ, e);
+			}
+		}
+
+	}
+
+	static abstract class ByteSource extends JsonSource {
+
+		private static final char REPLACEMENT = '\uFFFD';
+
+		@Override
+		long append(StringBuilder sb, long pos, long end) {
+			int c = at(pos);
+			int n = (c >= 0xF0) ? 3 : (c >= 0xE0) ? 2 : (c >= 0xC0) ? 1 : 0;
+			if(n == 0 || c >= 0xF8 || pos + n >= end) {
+				sb.append(REPLACEMENT);
+				return pos;
+			}
+			int cp = c & (0x3F >> n);
+			for(int i = 1; i <= n; i++) {
+				int b = at(pos + i);
+				if((b & 0xC0) != 0x80) {
+					sb.append(REPLACEMENT);
+					return pos + i - 1;
+				}
+				cp = (cp << 6) | (b & 0x3F);
+			}
+			if(cp > Character.MAX_CODE_POINT) sb.append(REPLACEMENT);
+			else sb.appendCodePoint(cp);
+			return pos + n;
+		}
+
+		@Override
+		int whitespace(long pos) {
+			// all of the non-ASCII whitespace characters (U+1680, U+2000-U+200A, U+2028, U+2029, U+205F, U+3000) take 3 bytes
+			int c = at(pos);
+			if((c == 0xE1 || c == 0xE2 || c == 0xE3) && has(pos + 2)) {
+				int b1 = at(pos + 1);
+				int b2 = at(pos + 2);
+				if((b1 & 0xC0) == 0x80 && (b2 & 0xC0) == 0x80) {
+					int cp = ((c & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F);
+					if(Character.isWhitespace(cp)) return 3;
+				}
+			}
+			return 0;
+		}
+
+	}
+
+	static final class ArraySource extends ByteSource {
+
+		private final byte[] bytes;
+		private final int offset;
+		private final int length;
+
+		ArraySource(byte[] bytes, int offset, int length) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		boolean has(long pos) {
+			return pos < length;
+		}
+
+		@Override
+		int at(long pos) {
+			if(pos >= length) throw new IndexOutOfBoundsException(String.valueOf(pos));
+			return bytes[offset + (int) pos] & 0xFF;
+		}
+
+	}
+
+	/**
+	 * Reads the remaining bytes of a buffer - typically a direct buffer - with absolute gets,
+	 * leaving its position unchanged.
+	 */
+	static final class BufferSource extends ByteSource {
+
+		private final ByteBuffer buffer;
+		private final int offset;
+		private final int length;
+
+		BufferSource(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.offset = buffer.position();
+			this.length = buffer.remaining();
+		}
+
+		@Override
+		boolean has(long pos) {
+			return pos < length;
+		}
+
+		@Override
+		int at(long pos) {
+			if(pos >= length) throw new IndexOutOfBoundsException(String.valueOf(pos));
+			return buffer.get(offset + (int) pos) & 0xFF;
+		}
+
+	}
+
+	static final class StreamSource extends ByteSource {
+
+		private final InputStream in;
+		private byte[] buf;
+		private long offset;
+		private int limit;
+		private long mark;
+		private long hold = Long.MAX_VALUE;
+		private boolean eof;
+
+		StreamSource(InputStream in, int size) {
+			this.in = in;
+			this.buf = new byte[size];
+		}
+
+		@Override
+		boolean has(long pos) {
+			while(pos >= offset + limit) {
+				if(!fill()) return false;
+			}
+			return true;
+		}
+
+		@Override
+		int at(long pos) {
+			if(pos >= offset + limit) has(pos);
+			return buf[(int) (pos - offset)] & 0xFF;
+		}
+
+		@Override
+		boolean inMemory() {
+			return false;
+		}
+
+		@Override
+		void mark(long pos) {
+			if(pos > mark) mark = pos;
+		}
+
+		@Override
+		void hold(long pos) {
+			hold = pos;
+		}
+
+		@Override
+		void release(long pos) {
+			hold = Long.MAX_VALUE;
+			mark = pos;
+		}
+
+		private boolean fill() {
+			if(eof) {
+				return false;
+			}
+			int discard = (int) (Math.min(Math.min(mark, hold), offset + limit) - offset);
+			if(discard > 0) {
+				System.arraycopy(buf, discard, buf, 0, limit - discard);
+				offset += discard;
+				limit -= discard;
+			}
+			if(limit == buf.length) {
+				// a single token is larger than the buffer
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+			try {
+				int n = in.read(buf, limit, buf.length - limit);
+				if(n < 0) {
+					eof = true;
+					return false;
+				}
+				limit += n;
+				return true;
+			} catch(IOException e) {
+				throw new IllegalStateException(ERR_READ, e);
+			}
+		}
+
+	}
+
+	/**
+	 * Reads a memory-mapped file. Files larger than a single mapping (2GB) are mapped in
+	 * multiple windows; the file is never copied onto the heap.
+	 */
+	static final class MappedSource extends ByteSource {
+
+		private static final int WINDOW_SHIFT = 30;
+		private static final long WINDOW_MASK = (1L << WINDOW_SHIFT) - 1;
+
+		private final MappedByteBuffer[] windows;
+		private final long length;
+		private MappedByteBuffer window;
+		private long windowStart;
+
+		MappedSource(Path path) throws IOException {
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				this.length = channel.size();
+				this.windows = new MappedByteBuffer[(int) ((length + WINDOW_MASK) >>> WINDOW_SHIFT)];
+				for(int i = 0; i < windows.length; i++) {
+					long start = (long) i << WINDOW_SHIFT;
+					windows[i] = channel.map(MapMode.READ_ONLY, start, Math.min(WINDOW_MASK + 1, length - start));
+				}
+			}
+			this.window = (windows.length > 0) ? windows[0] : null;
+		}
+
+		private MappedSource(MappedByteBuffer[] windows, long length) {
+			this.windows = windows;
+			this.length = length;
+			this.window = (windows.length > 0) ? windows[0] : null;
+		}
+
+		@Override
+		JsonSource share() {
+			// the current window is cached per source, so each thread needs its own
+			return new MappedSource(windows, length);
+		}
+
+		@Override
+		boolean has(long pos) {
+			return pos < length;
+		}
+
+		@Override
+		int at(long pos) {
+			long i = pos - windowStart;
+			if(i < 0 || i > WINDOW_MASK || window == null) {
+				if(pos >= length) throw new IndexOutOfBoundsException(String.valueOf(pos));
+				window = windows[(int) (pos >>> WINDOW_SHIFT)];
+				windowStart = pos & ~WINDOW_MASK;
+				i = pos - windowStart;
+			}
+			return window.get((int) i) & 0xFF;
+		}
+
+	}
+
+}
@@ -1,33 +1,77 @@
 package fm.strength.sloppyj;
 
 import java.io.ObjectStreamClass;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+/**
+ * Creates instances of model classes without calling their constructors.
+ * <p>
+ * The allocation strategy (sun.misc.Unsafe on the JVM, ObjectStreamClass on Dalvik) is
+ * found once, and an instantiator bound to each type is created once and cached in its
+ * {@link ClassModel}, so creating an object does not resolve anything reflectively.
+ * </p>
+ */
 public abstract class Kreator {
 
 	public static final String ERR_COULD_NOT_INSTANTIATE_TYPE = "could not instantiate the requested type: %s";
 	public static final String ERR_ILLEGAL_ACCESS = "field should have been set to accessible...";
 
-	private static final Kreator instance = load();
-    private static Kreator load() {
-    	Kreator k = loadJVM();
-    	if(k == null) k = loadDalvik(long.class);
-    	if(k == null) k = loadDalvik(int.class);
-    	return k;
+	private static final Factory factory = load();
+    private static Factory load() {
+    	Factory f = loadJVMHandle();
+    	if(f == null) f = loadJVM();
+    	if(f == null) f = loadDalvik(long.class);
+    	if(f == null) f = loadDalvik(int.class);
+    	return f;
     }
     
-    private static Kreator loadJVM() {
+    private static Object loadUnsafe() throws Exception {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field f = unsafeClass.getDeclaredField("theUnsafe");
+        f.setAccessible(true);
+        return f.get(null);
+    }
+    
+    private static Factory loadJVMHandle() {
+        try {
+            Object unsafe = loadUnsafe();
+            Method allocateInstance = unsafe.getClass().getMethod("allocateInstance", Class.class);
+            final MethodHandle handle = MethodHandles.lookup().unreflect(allocateInstance).bindTo(unsafe);
+            return new Factory() {
+                Kreator create(Class<?> type) {
+                    final MethodHandle allocate = MethodHandles.insertArguments(handle, 0, type).asType(MethodType.methodType(Object.class));
+                    return new Kreator(type) {
+                        Object create() throws InvocationTargetException {
+                            try {
+                                return (Object) allocate.invokeExact();
+                            } catch(Throwable t) {
+                                throw new InvocationTargetException(t);
+                            }
+                        }
+                    };
+                }
+            };
+        } catch(Throwable ignored) {
+            return null;
+        }
+    }
+    
+    private static Factory loadJVM() {
         try {
-            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
-            Field f = unsafeClass.getDeclaredField("theUnsafe");
-            f.setAccessible(true);
-            final Object unsafe = f.get(null);
-            final Method allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
-            return new Kreator() {
-                <T> T createNewInstance(Class<T> type) throws InvocationTargetException, IllegalAccessException {
-                    return type.cast(allocateInstance.invoke(unsafe, type));
+            final Object unsafe = loadUnsafe();
+            final Method allocateInstance = unsafe.getClass().getMethod("allocateInstance", Class.class);
+            return new Factory() {
+                Kreator create(final Class<?> type) {
+                    return new Kreator(type) {
+                        Object create() throws InvocationTargetException, IllegalAccessException {
+                            return allocateInstance.invoke(unsafe, type);
+                        }
+                    };
                 }
             };
           } catch (Exception ignored) {
@@ -35,16 +79,20 @@ public abstract class Kreator {
           }
     }
     
-    private static Kreator loadDalvik(final Class<?> idType) {
+    private static Factory loadDalvik(final Class<?> idType) {
         try {
             Method getConstructorId = ObjectStreamClass.class.getDeclaredMethod("getConstructorId", Class.class);
             getConstructorId.setAccessible(true);
             final Method newInstance = ObjectStreamClass.class.getDeclaredMethod("newInstance", Class.class, idType);
             final Object constructorId = getConstructorId.invoke(null, Object.class);
             newInstance.setAccessible(true);
-            return new Kreator() {
-                <T> T createNewInstance(Class<T> type) throws InvocationTargetException, IllegalAccessException {
-                    return type.cast(newInstance.invoke(null, type, constructorId));
+            return new Factory() {
+                Kreator create(final Class<?> type) {
+                    return new Kreator(type) {
+                        Object create() throws InvocationTargetException, IllegalAccessException {
+                            return newInstance.invoke(null, type, constructorId);
+                        }
+                    };
                 }
             };
         } catch(Exception e) {
@@ -53,8 +101,23 @@ public abstract class Kreator {
     }
     
     public static <T> T newInstance(Class<T> type) {
+        return type.cast(ClassModel.of(type).newInstance());
+    }
+    
+    static Kreator of(Class<?> type) {
+        return factory.create(type);
+    }
+    
+    
+    private final Class<?> type;
+    
+    private Kreator(Class<?> type) {
+        this.type = type;
+    }
+    
+    final Object newInstance() {
         try {
-            return instance.createNewInstance(type);
+            return create();
         } catch(IllegalAccessException e) {
             throw new IllegalArgumentException(ERR_ILLEGAL_ACCESS, e);
         } catch(InvocationTargetException e) {
@@ -62,6 +125,11 @@ public abstract class Kreator {
         }
     }
     
-    abstract <T> T createNewInstance(Class<T> type) throws InvocationTargetException, IllegalAccessException;
+    abstract Object create() throws InvocationTargetException, IllegalAccessException;
+    
+    
+    private static abstract class Factory {
+        abstract Kreator create(Class<?> type);
+    }
     
-}
\ No newline at end of file
+}
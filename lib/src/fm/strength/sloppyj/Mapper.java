@@ -15,6 +15,11 @@
  */
 package fm.strength.sloppyj;
 
+/**
+ * Maps keys between their JSON names and Java names. Mappers should be pure functions of the
+ * key: the names of the fields of model classes are mapped once per class and remembered.
+ * @see CachingMapper
+ */
 public interface Mapper {
 
 	String fromJson(String key);
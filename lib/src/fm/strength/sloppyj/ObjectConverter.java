@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import static fm.strength.sloppyj.Jay.ERR_NULL_KEY;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fm.strength.sloppyj.ClassModel.FieldModel;
+
+/**
+ * Converts objects (Maps, Lists, arrays, models and values) into the requested type by walking
+ * them directly: the same conversion as writing them to JSON with {@link JsonBuilder} and parsing
+ * that with {@link JsonParser}, without the text in between. The source is read as the builder
+ * reads it (Adapters applied to each value, withOut and the Mapper applied to each key) and the
+ * target is built as the parser builds it (through ObjectWrappers, with the Mapper, withOut and
+ * Adapters applied again on the way in).
+ * <p>
+ * Numbers are typed as the parser would type them (an Integer, Long or BigInteger for integers;
+ * a Double or BigDecimal for decimals, and the exact types of long, BigInteger and BigDecimal
+ * fields). Strings are carried over exactly, rather than being trimmed and unescaped as text.
+ * </p>
+ */
+class ObjectConverter {
+
+	private final Jay jay;
+	private final boolean array;
+	private final Class<?> primitives;
+
+	ObjectConverter(Jay jay, Class<?> type) {
+		this.jay = jay;
+		this.array = type.isArray();
+		this.primitives = PrimitiveArray.supports(type) ? type : null;
+	}
+
+
+	Object toJava(Object data) {
+		if(primitives != null) {
+			return getPrimitiveArray(primitives, jay.adaptToJson(data));
+		}
+		return getValue(null, null, data);
+	}
+
+	private Object getValue(ObjectWrapper parent, String key, Object value) {
+		if(value != null) {
+			value = jay.adaptToJson(value);
+			if(value instanceof Map)                  return getObject(parent, key, (Map<?,?>) value);
+			else if(value instanceof Iterable)        return getArray(parent, key, (Iterable<?>) value);
+			else if(value != null) {
+				if(value.getClass().isArray())        return getArray(parent, key, value);
+				if(value instanceof Number)           value = getNumber(parent, key, (Number) value);
+				else if(value instanceof Date)        value = getNumber(parent, key, ((Date) value).getTime());
+				else if(value instanceof Character)   value = value.toString();
+				else if(!(value instanceof Boolean) && !(value instanceof String)) {
+					if(JsonBuilder.isSystem(value))   value = value.toString();
+					else                              return getModel(parent, key, value);
+				}
+			}
+		}
+		return jay.adaptFromJson(parent, key, value);
+	}
+
+	private Object getArray(ObjectWrapper parent, String key, Iterable<?> values) {
+		Class<?> type = (parent != null) ? parent.getArrayType(key) : null;
+		if(type != null) {
+			return getPrimitiveArray(type, values);
+		}
+		ArrayList<Object> list = (values instanceof Collection) ? new ArrayList<Object>(((Collection<?>) values).size()) : new ArrayList<Object>();
+		for(Object value : values) {
+			list.add(getValue(parent, key, value));
+		}
+		list.trimToSize();
+		return array ? list.toArray() : list;
+	}
+
+	private Object getArray(ObjectWrapper parent, String key, Object values) {
+		Class<?> type = (parent != null) ? parent.getArrayType(key) : null;
+		if(type != null) {
+			return getPrimitiveArray(type, values);
+		}
+		int length = Array.getLength(values);
+		Object[] elements = new Object[length];
+		for(int i = 0; i < length; i++) {
+			elements[i] = getValue(parent, key, Array.get(values, i));
+		}
+		if(array) return elements;
+		ArrayList<Object> list = new ArrayList<Object>(length);
+		for(Object element : elements) {
+			list.add(element);
+		}
+		return list;
+	}
+
+	/**
+	 * @return the values (an Iterable or array) as an array of the given primitive type, or null if they
+	 * are not an array or an element does not fit, as the parser reads them (see {@link PrimitiveArray})
+	 */
+	private Object getPrimitiveArray(Class<?> type, Object values) {
+		if(values == null || values.getClass() == type) {
+			return (values != null) ? copy(values) : null;
+		}
+		PrimitiveArray result = new PrimitiveArray(type);
+		if(values instanceof Iterable) {
+			for(Object value : (Iterable<?>) values) {
+				if(!addPrimitive(result, value)) return null;
+			}
+		} else if(values.getClass().isArray()) {
+			for(int i = 0; i < Array.getLength(values); i++) {
+				if(!addPrimitive(result, Array.get(values, i))) return null;
+			}
+		} else {
+			return null;
+		}
+		return result.toArray();
+	}
+
+	private boolean addPrimitive(PrimitiveArray result, Object value) {
+		value = jay.adaptToJson(value);
+		if(value instanceof Date) value = ((Date) value).getTime();
+		if(value instanceof Number) value = getNumber(null, null, (Number) value);
+		return result.add(value);
+	}
+
+	private static Object copy(Object array) {
+		int length = Array.getLength(array);
+		Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+		System.arraycopy(array, 0, copy, 0, length);
+		return copy;
+	}
+
+	private Object getObject(ObjectWrapper parent, String parentKey, Map<?,?> values) {
+		ObjectWrapper wrapper = (parent != null) ? parent.get(parentKey) : jay.getWrapper();
+		for(Entry<?,?> entry : values.entrySet()) {
+			if(entry.getKey() == null) throw new IllegalArgumentException(ERR_NULL_KEY);
+			if(wrapper != null && entry.getValue() != null) {
+				String name = entry.getKey().toString();
+				if(jay.include(name)) {
+					set(wrapper, jay.mapToJson(name), entry.getValue());
+				}
+			}
+		}
+		return (wrapper != null) ? wrapper.get() : null;
+	}
+
+	private Object getModel(ObjectWrapper parent, String parentKey, Object o) {
+		ObjectWrapper wrapper = (parent != null) ? parent.get(parentKey) : jay.getWrapper();
+		if(wrapper != null) {
+			ClassModel model = ClassModel.of(o.getClass());
+			String[] keys = jay.mapToJson(model);
+			for(int i = 0; i < keys.length; i++) {
+				FieldModel field = model.fields[i];
+				Object value;
+				try {
+					value = field.accessor.get(o);
+				} catch(IllegalAccessException e) {
+					// should never happen...
+					throw new RuntimeException(e);
+				}
+				if(value != null && jay.include(field.name)) {
+					set(wrapper, keys[i], value);
+				}
+			}
+		}
+		return (wrapper != null) ? wrapper.get() : null;
+	}
+
+	/**
+	 * set the value of the key (as it would be named in the JSON) in the wrapper
+	 */
+	private void set(ObjectWrapper wrapper, String jsonKey, Object value) {
+		String key = jay.mapFromJson(jsonKey, wrapper);
+		if(jay.include(key)) {
+			wrapper.set(key, getValue(wrapper, key, value));
+		}
+	}
+
+	/**
+	 * @return the number as the parser would read it, for the given field (if any)
+	 */
+	private Object getNumber(ObjectWrapper parent, String key, Number n) {
+		Class<?> type = (parent != null) ? parent.getType(key) : null;
+		if(n instanceof BigDecimal && ((BigDecimal) n).scale() == 0) {
+			n = ((BigDecimal) n).unscaledValue(); // written without a decimal point, so read as an integer
+		}
+		if(n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte ||
+				n instanceof BigInteger || n instanceof AtomicInteger || n instanceof AtomicLong) {
+			BigInteger big = (n instanceof BigInteger) ? (BigInteger) n : null;
+			if(type == BigInteger.class) return (big != null) ? big : BigInteger.valueOf(n.longValue());
+			if(type == BigDecimal.class) return (big != null) ? new BigDecimal(big) : BigDecimal.valueOf(n.longValue());
+			if(big != null && big.bitLength() > 63) return big;
+			long value = n.longValue();
+			if(value == (int) value && type != long.class && type != Long.class) return Integer.valueOf((int) value);
+			return Long.valueOf(value);
+		}
+		boolean finite = !(n instanceof Double || n instanceof Float) || !Double.isNaN(n.doubleValue()) && !Double.isInfinite(n.doubleValue());
+		boolean floating = type == double.class || type == Double.class || type == float.class || type == Float.class;
+		if(finite && (type == BigDecimal.class || (jay.useBigDecimals() && !floating))) {
+			if(n instanceof BigDecimal) return n;
+			if(n instanceof Float) return new BigDecimal(n.toString());
+			return BigDecimal.valueOf(n.doubleValue());
+		}
+		if(n instanceof Double) return n;
+		if(n instanceof Float) return Double.valueOf(n.toString()); // as written: 0.1f is 0.1, not 0.10000000149011612
+		return n.doubleValue();
+	}
+
+}
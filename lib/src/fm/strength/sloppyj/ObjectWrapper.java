@@ -15,15 +15,15 @@
  */
 package fm.strength.sloppyj;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 
+import fm.strength.sloppyj.ClassModel.FieldModel;
+
 class ObjectWrapper {
 	
 	private final Class<?> type;
+	private final ClassModel model;
 	private final Object object;
 
 	public ObjectWrapper(Class<?> type) {
@@ -32,68 +32,95 @@ class ObjectWrapper {
 	public ObjectWrapper(Class<?> type, Class<?> objectType) {
 		this.type = type;
 		if(useMap(objectType)) {
+			this.model = null;
 			this.object = new LinkedHashMap<>();
 		}
 		else {
-			this.object = Kreator.newInstance(type);
+			this.model = ClassModel.of(type);
+			this.object = model.newInstance();
 		}
 	}
+	private ObjectWrapper(ClassModel model) {
+		this.type = model.type;
+		this.model = model;
+		this.object = model.newInstance();
+	}
+	
+	/**
+	 * @return the model of the object, or null if it is a Map
+	 */
+	ClassModel model() {
+		return model;
+	}
 	
 	public Object get() {
 		return object;
 	}
 	
 	public ObjectWrapper get(String key) {
-		if(object instanceof Map) {
+		if(model == null) {
 			return new ObjectWrapper(type);
 		} else {
-			try {
-				Field field = type.getDeclaredField(key);
-				Class<?> fieldType = field.getType();
-				if(Map.class.isAssignableFrom(fieldType)) {
-					fieldType = (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[1];
-					return new ObjectWrapper(fieldType, Map.class);
-				}
-				if(List.class.isAssignableFrom(fieldType)) {
-	                fieldType = (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
-				}
-				return new ObjectWrapper(fieldType);
-			} catch(Exception e) {
+			FieldModel field = model.field(key);
+			if(field == null || field.childType == null) {
 				// field exists in JSON, but not in Object - return null and JsonParser will skip it
 				return null;
 			}
+			if(PrimitiveArray.supports(field.type)) {
+				// an object where the field is a primitive array - skip it too
+				return null;
+			}
+			if(field.map) {
+				return new ObjectWrapper(field.childType, Map.class);
+			}
+			if(useMap(field.childType)) {
+				return new ObjectWrapper(field.childType);
+			}
+			return new ObjectWrapper(field.childModel());
 		}
 	}
 
 	public Class<?> getType(String key) {
-		if(object instanceof Map) {
+		if(model == null) {
 			return type;
 		} else {
-			try {
-				Field field = object.getClass().getDeclaredField(key);
-				Class<?> fieldType = field.getType();
-				if(List.class.isAssignableFrom(fieldType)) {
-	                fieldType = (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
-				}
-				return fieldType;
-			} catch(Exception e) {
-				// field exists in JSON, but not in Object - return null and Jay will skip it
-				return null;
-			}
+			FieldModel field = model.field(key);
+			// field exists in JSON, but not in Object - return null and Jay will skip it
+			return (field != null) ? field.valueType : null;
 		}
 	}
 
+	/**
+	 * @return the type of the field, if it is a primitive array that is read directly (see {@link PrimitiveArray});
+	 * otherwise null
+	 */
+	Class<?> getArrayType(String key) {
+		if(model == null) {
+			return null;
+		}
+		FieldModel field = model.field(key);
+		return (field != null && PrimitiveArray.supports(field.type)) ? field.type : null;
+	}
+
+	/**
+	 * @return true if the key has been set in a Map; fields of a model are simply set again
+	 */
+	boolean has(String key) {
+		return model == null && ((Map<?,?>) object).containsKey(key);
+	}
+
 	@SuppressWarnings("unchecked")
 	public void set(String key, Object value) {
-		if(object instanceof Map) {
+		if(model == null) {
 			((Map<String, Object>) object).put(key, value);
 		} else {
-			try {
-				Field field = object.getClass().getDeclaredField(key);
-				field.setAccessible(true);
-				field.set(object, value);
-			} catch(Exception e) {
-				// field exists in JSON, but not in Object - skip it
+			FieldModel field = model.field(key);
+			if(field != null) {
+				try {
+					field.accessor.set(object, value);
+				} catch(Exception e) {
+					// field cannot be set (final, inaccessible or the wrong type) - skip it
+				}
 			}
 		}
 	}
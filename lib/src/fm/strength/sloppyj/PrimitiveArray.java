@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.lang.reflect.Array;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * A growable int[], long[], double[], float[] or boolean[], for reading arrays of values
+ * straight into their primitive type, without boxing each element.
+ * <p>
+ * Each element must fit the component type as a field of that type would take it: integers
+ * into any number type (within range for int[] and long[]), decimals into double[] and float[],
+ * and true and false into boolean[]. Anything else is refused, and the caller drops the array.
+ * </p>
+ */
+final class PrimitiveArray {
+
+	static boolean supports(Class<?> type) {
+		return type == int[].class || type == long[].class || type == double[].class
+				|| type == float[].class || type == boolean[].class;
+	}
+
+
+	private final Class<?> type;
+	private Object array;
+	private int capacity = 16;
+	private int size;
+
+	PrimitiveArray(Class<?> type) {
+		this.type = type;
+		this.array = Array.newInstance(type.getComponentType(), capacity);
+	}
+
+
+	/**
+	 * @return false if the value does not fit the component type
+	 */
+	boolean add(long value) {
+		if(size == capacity) grow();
+		if(type == int[].class) {
+			if(value != (int) value) return false;
+			((int[]) array)[size++] = (int) value;
+		}
+		else if(type == long[].class)   ((long[]) array)[size++] = value;
+		else if(type == double[].class) ((double[]) array)[size++] = value;
+		else if(type == float[].class)  ((float[]) array)[size++] = value;
+		else return false;
+		return true;
+	}
+
+	/**
+	 * @return false if the value does not fit the component type
+	 */
+	boolean add(double value) {
+		if(size == capacity) grow();
+		if(type == double[].class)     ((double[]) array)[size++] = value;
+		else if(type == float[].class) ((float[]) array)[size++] = (float) value;
+		else return false;
+		return true;
+	}
+
+	/**
+	 * @return false if the value does not fit the component type
+	 */
+	boolean add(boolean value) {
+		if(size == capacity) grow();
+		if(type != boolean[].class) return false;
+		((boolean[]) array)[size++] = value;
+		return true;
+	}
+
+	/**
+	 * add a value that has already been created (an arg, for example)
+	 * @return false if the value does not fit the component type
+	 */
+	boolean add(Object value) {
+		if(value instanceof Boolean) {
+			return add(((Boolean) value).booleanValue());
+		}
+		if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			return add(((Number) value).longValue());
+		}
+		if(value instanceof BigInteger) {
+			BigInteger big = (BigInteger) value;
+			return (big.bitLength() < 64) ? add(big.longValue()) : add(big.doubleValue());
+		}
+		if(value instanceof Float) {
+			return add(Double.parseDouble(value.toString())); // as written: 0.1f is 0.1
+		}
+		if(value instanceof Number) {
+			return add(((Number) value).doubleValue());
+		}
+		return false;
+	}
+
+	/**
+	 * @return the values added, in an array of their exact size
+	 */
+	Object toArray() {
+		if(size == capacity) return array;
+		Object result = Array.newInstance(type.getComponentType(), size);
+		System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+
+	private void grow() {
+		capacity *= 2;
+		if(type == int[].class)         array = Arrays.copyOf((int[]) array, capacity);
+		else if(type == long[].class)   array = Arrays.copyOf((long[]) array, capacity);
+		else if(type == double[].class) array = Arrays.copyOf((double[]) array, capacity);
+		else if(type == float[].class)  array = Arrays.copyOf((float[]) array, capacity);
+		else                            array = Arrays.copyOf((boolean[]) array, capacity);
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+/**
+ * Converts the values of one type to and from JSON; registered for its type with
+ * {@link Jay#withAdapter(Class, TypeAdapter)}. Unlike an {@link Adapter}, it is only
+ * called for values of its own type.
+ */
+public interface TypeAdapter<T> {
+
+	/**
+	 * @param json the JSON value of a field of the adapter's type: a String, Number, Boolean or null
+	 */
+	T fromJson(Object json);
+
+	/**
+	 * @return the value as one that can be written as JSON (a String, Number, Map...)
+	 */
+	Object toJson(T value);
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A Writer that encodes UTF-8 directly into a byte[] buffer, which is written out to an OutputStream,
+ * WritableByteChannel or ByteBuffer as it fills (or, with nowhere to write it, grows to hold everything).
+ * Unpaired surrogates are written as '?', as the standard UTF-8 encoder does.
+ */
+class Utf8Writer extends Writer {
+
+	static final int BUFFER_SIZE = 8192;
+
+	static Utf8Writer of(final OutputStream out, byte[] buffer) {
+		return new Utf8Writer(buffer) {
+			void drain() throws IOException {
+				out.write(bytes, 0, count);
+				count = 0;
+			}
+			public void flush() throws IOException {
+				super.flush();
+				drain();
+				out.flush();
+			}
+		};
+	}
+
+	static Utf8Writer of(final WritableByteChannel out, byte[] buffer) {
+		return new Utf8Writer(buffer) {
+			void drain() throws IOException {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, count);
+				while(buffer.hasRemaining()) out.write(buffer);
+				count = 0;
+			}
+			public void flush() throws IOException {
+				super.flush();
+				drain();
+			}
+		};
+	}
+
+	static Utf8Writer of(final ByteBuffer out, byte[] buffer) {
+		return new Utf8Writer(buffer) {
+			void drain() {
+				out.put(bytes, 0, count);
+				count = 0;
+			}
+			public void flush() throws IOException {
+				super.flush();
+				drain();
+			}
+		};
+	}
+
+
+	byte[] bytes;
+	int count;
+	private char high;
+
+	Utf8Writer(int capacity) {
+		this(new byte[capacity]);
+	}
+
+	Utf8Writer(byte[] buffer) {
+		this.bytes = (buffer.length < 8) ? new byte[8] : buffer; // room for any char, even after a pending surrogate
+	}
+
+
+	/**
+	 * make room in the buffer: write out what it holds or, by default, grow it
+	 */
+	void drain() throws IOException {
+		bytes = Arrays.copyOf(bytes, bytes.length * 2);
+	}
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(bytes, count);
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		put((char) c);
+	}
+
+	@Override
+	public void write(String s, int off, int len) throws IOException {
+		for(int i = off, end = off + len; i < end; i++) {
+			char c = s.charAt(i);
+			if(c < 0x80 && high == 0) {
+				if(count == bytes.length) drain();
+				bytes[count++] = (byte) c;
+			} else {
+				put(c);
+			}
+		}
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		for(int i = off, end = off + len; i < end; i++) {
+			char c = cbuf[i];
+			if(c < 0x80 && high == 0) {
+				if(count == bytes.length) drain();
+				bytes[count++] = (byte) c;
+			} else {
+				put(c);
+			}
+		}
+	}
+
+	/**
+	 * writes out a pending unpaired high surrogate; subclasses also write out the buffer
+	 */
+	@Override
+	public void flush() throws IOException {
+		if(high != 0) {
+			high = 0;
+			put('?');
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	private void put(char c) throws IOException {
+		if(count + 4 > bytes.length) drain();
+		if(high != 0) {
+			char h = high;
+			high = 0;
+			if(Character.isLowSurrogate(c)) {
+				int cp = Character.toCodePoint(h, c);
+				bytes[count++] = (byte) (0xF0 | (cp >> 18));
+				bytes[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				bytes[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				bytes[count++] = (byte) (0x80 | (cp & 0x3F));
+				return;
+			}
+			bytes[count++] = '?';
+			if(count + 3 > bytes.length) drain();
+		}
+		if(c < 0x80) {
+			bytes[count++] = (byte) c;
+		}
+		else if(c < 0x800) {
+			bytes[count++] = (byte) (0xC0 | (c >> 6));
+			bytes[count++] = (byte) (0x80 | (c & 0x3F));
+		}
+		else if(Character.isHighSurrogate(c)) {
+			high = c;
+		}
+		else if(Character.isLowSurrogate(c)) {
+			bytes[count++] = '?';
+		}
+		else {
+			bytes[count++] = (byte) (0xE0 | (c >> 12));
+			bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			bytes[count++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 Jeremy Dowdall <jeremyd@aspencloud.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fm.strength.sloppyj;
+
+import static fm.strength.sloppyj.JayReader.Token.BEGIN_ARRAY;
+import static fm.strength.sloppyj.JayReader.Token.BEGIN_OBJECT;
+import static fm.strength.sloppyj.JayReader.Token.BOOLEAN;
+import static fm.strength.sloppyj.JayReader.Token.END_ARRAY;
+import static fm.strength.sloppyj.JayReader.Token.END_DOCUMENT;
+import static fm.strength.sloppyj.JayReader.Token.END_OBJECT;
+import static fm.strength.sloppyj.JayReader.Token.NAME;
+import static fm.strength.sloppyj.JayReader.Token.NULL;
+import static fm.strength.sloppyj.JayReader.Token.NUMBER;
+import static fm.strength.sloppyj.JayReader.Token.STRING;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JayReaderTests {
+
+	private static List<JayReader.Token> tokens(JayReader reader) {
+		List<JayReader.Token> tokens = new ArrayList<JayReader.Token>();
+		JayReader.Token token;
+		do {
+			tokens.add(token = reader.nextToken());
+		} while(token != END_DOCUMENT);
+		return tokens;
+	}
+
+	@Test
+	public void test_tokens() throws Exception {
+		assertThat(tokens(Jay.get("{\"a\":[1,\"b\",true,null]}").asReader()))
+			.containsExactly(BEGIN_OBJECT, NAME, BEGIN_ARRAY, NUMBER, STRING, BOOLEAN, NULL, END_ARRAY, END_OBJECT, END_DOCUMENT);
+	}
+
+	@Test
+	public void test_tokens_withSloppyInput() throws Exception {
+		assertThat(tokens(Jay.get("a:b:c").asReader()))
+			.containsExactly(BEGIN_OBJECT, NAME, BEGIN_OBJECT, NAME, STRING, END_OBJECT, END_OBJECT, END_DOCUMENT);
+		assertThat(tokens(Jay.get("[1,2][3]").asReader()))
+			.containsExactly(BEGIN_ARRAY, NUMBER, NUMBER, END_ARRAY, BEGIN_ARRAY, NUMBER, END_ARRAY, END_DOCUMENT);
+		assertThat(tokens(Jay.get("").asReader())).containsExactly(END_DOCUMENT);
+	}
+
+	@Test
+	public void test_values() throws Exception {
+		JayReader reader = Jay.get("{id:42, big:12345678901, ratio:.5, name:'bob', ok:true, none:null}").asReader();
+		
+		assertThat(reader.nextToken()).isEqualTo(BEGIN_OBJECT);
+		assertThat(reader.nextName()).isEqualTo("id");
+		assertThat(reader.nextInt()).isEqualTo(42);
+		assertThat(reader.nextName()).isEqualTo("big");
+		assertThat(reader.nextLong()).isEqualTo(12345678901L);
+		assertThat(reader.nextName()).isEqualTo("ratio");
+		assertThat(reader.nextDouble()).isEqualTo(0.5);
+		assertThat(reader.nextName()).isEqualTo("name");
+		assertThat(reader.nextString()).isEqualTo("bob");
+		assertThat(reader.nextName()).isEqualTo("ok");
+		assertThat(reader.nextBoolean()).isTrue();
+		assertThat(reader.nextName()).isEqualTo("none");
+		reader.nextNull();
+		assertThat(reader.hasNext()).isFalse();
+		assertThat(reader.nextToken()).isEqualTo(END_OBJECT);
+		assertThat(reader.peek()).isEqualTo(END_DOCUMENT);
+	}
+
+	@Test
+	public void test_skipValue() throws Exception {
+		JayReader reader = Jay.get(new StringReader("{a:{b:[1,{c:'}'}]},d:[e,f],g:h,id:7}")).asReader();
+		
+		reader.nextToken();
+		int id = 0;
+		while(reader.hasNext()) {
+			if("id".equals(reader.nextName())) id = reader.nextInt();
+			else reader.skipValue();
+		}
+		
+		assertThat(id).isEqualTo(7);
+		assertThat(reader.nextToken()).isEqualTo(END_OBJECT);
+	}
+
+	@Test
+	public void test_withArgsMapperAndExclusions() throws Exception {
+		JayReader reader = Jay.get("?:?,skip_me:[1,2],my_key:?").withArgs("a", 1, false)
+				.withMapper(new SnakeMapper()).withOut("skipMe").asReader();
+		
+		reader.nextToken();
+		assertThat(reader.nextName()).isEqualTo("a");
+		assertThat(reader.peek()).isEqualTo(NUMBER);
+		assertThat(reader.nextInt()).isEqualTo(1);
+		assertThat(reader.nextName()).isEqualTo("myKey");
+		assertThat(reader.nextBoolean()).isFalse();
+		assertThat(reader.nextToken()).isEqualTo(END_OBJECT);
+	}
+
+	@Test
+	public void test_numbers() throws Exception {
+		JayReader reader = Jay.get("[7, 12345678901, 2.5, '3', 9e+2, -8 , 42, 2147483648]".getBytes("UTF-8")).asReader();
+		
+		assertThat(reader.nextToken()).isEqualTo(BEGIN_ARRAY);
+		assertThat(reader.nextInt()).isEqualTo(7);
+		assertThat(reader.nextLong()).isEqualTo(12345678901L);
+		assertThat(reader.nextDouble()).isEqualTo(2.5);
+		assertThat(reader.nextInt()).isEqualTo(3);
+		assertThat(reader.nextDouble()).isEqualTo(900.0);
+		assertThat(reader.nextLong()).isEqualTo(-8L);
+		assertThat(reader.nextString()).isEqualTo("42");
+		try {
+			reader.nextInt();
+			throw new AssertionError("expected a NumberFormatException");
+		} catch(NumberFormatException e) {
+			assertThat(e.getMessage()).contains("2147483648");
+		}
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void test_unexpectedToken() throws Exception {
+		Jay.get("[1]").asReader().nextName();
+	}
+
+}
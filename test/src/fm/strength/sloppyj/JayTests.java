@@ -18,6 +18,21 @@ package fm.strength.sloppyj;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.fest.assertions.data.MapEntry.entry;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -50,6 +65,45 @@ public class JayTests {
     	assertThat(Jay.get("a:b:c").at("a.b").as(String.class)).isEqualTo("c");
     }
     
+    @Test
+    public void test_find_inJson_withArrays() throws Exception {
+    	assertThat(Jay.get("a:[b,{c:[d,e]}]").at("a.1.c.1").as(String.class)).isEqualTo("e");
+    	assertThat(Jay.get("a:[b,{c:[d,e]}]").at("a.c.0").as(String.class)).isEqualTo("d");
+    	assertThat(Jay.get("a:[b,{c:[d,e]}]").at("a.b").as(String.class)).isEqualTo("b");
+    	assertThat(Jay.get("a:[b,{c:[d,e]}]").at("x.y").as(String.class)).isNull();
+    }
+    
+    @Test
+    public void test_find_inJson_stopsReading() throws Exception {
+    	Reader reader = new Reader() {
+    		boolean read;
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				if(read) throw new IOException("read past the value");
+				read = true;
+				"{id:42,rest:[".getChars(0, 13, cbuf, off);
+				return 13;
+			}
+			public void close() {}
+		};
+    	assertThat(Jay.get(reader).at("id").as(int.class)).isEqualTo(42);
+    }
+    
+    @Test
+    public void test_find_inJson_repeatedKeys() throws Exception {
+    	// reading stops at the value, so the first of repeated keys wins
+    	String json = "{a:1, b:{c:2}, a:3, b:{d:4}}";
+    	assertThat(Jay.get(json).at("a").as(int.class)).isEqualTo(1);
+    	assertThat(Jay.get(json).at("b.c").as(int.class)).isEqualTo(2);
+    	assertThat(Jay.get(json).at("b.d").as(Integer.class)).isNull();
+    	assertThat(Jay.get(new StringReader(json)).at("b.c").as(int.class)).isEqualTo(2);
+    }
+    
+    @Test
+    public void test_find_inJson_skipsSiblings() throws Exception {
+    	// the sibling is not a valid number, but is never created
+    	assertThat(Jay.get("a:-, b:{c:d}").at("b.c").as(String.class)).isEqualTo("d");
+    }
+    
     @Test
     public void test_keys() throws Exception {
 		Map object = new HashMap() {{
@@ -386,4 +440,553 @@ public class JayTests {
 		assertThat(Jay.get("{a:\"test\\u0026ing\"}").at("a").as(String.class)).isEqualTo("test&ing");
 	}
 
+	@Test
+	public void test_fromReader() throws Exception {
+		assertThat(Jay.get(new StringReader("a:[b,{c:'d e'}]")).asJson()).isEqualTo("{\"a\":[\"b\",{\"c\":\"d e\"}]}");
+		assertThat(Jay.get(new StringReader("?:[?,?]")).withArgs("a","b","c").asMap()).contains(entry("a", Arrays.asList("b", "c")));
+		assertThat(Jay.get(new StringReader("a:b:c")).at("a.b").as(String.class)).isEqualTo("c");
+	}
+
+	@Test
+	public void test_fromReader_largerThanBuffer() throws Exception {
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < 10000; i++) {
+			sb.append("{id:").append(i).append(",name:'name ").append(i).append("'},");
+		}
+		String json = sb.append(']').toString();
+		
+		List<Object> list = Jay.get(new StringReader(json)).asList();
+		
+		assertThat(list).hasSize(10000);
+		assertThat(list).isEqualTo(Jay.get(json).asList());
+	}
+
+	@Test
+	public void test_fromInputStream() throws Exception {
+		InputStream in = new ByteArrayInputStream("{a:'caf\u00e9 \u2603'}".getBytes("UTF-8"));
+		assertThat(Jay.get(in).asMap()).contains(entry("a", "caf\u00e9 \u2603"));
+	}
+
+	@Test
+	public void test_fromBytes() throws Exception {
+		byte[] bytes = "{a:'caf\u00e9 \u2603 \ud83d\ude00',b:[1,2.5,true]}".getBytes("UTF-8");
+		String expected = "{\"a\":\"caf\u00e9 \u2603 \ud83d\ude00\",\"b\":[1,2.5,true]}";
+		
+		assertThat(Jay.get(bytes).asJson()).isEqualTo(expected);
+		assertThat(Jay.get(ByteBuffer.wrap(bytes)).asJson()).isEqualTo(expected);
+		
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+		assertThat(Jay.get(direct).asJson()).isEqualTo(expected);
+	}
+
+	@Test
+	public void test_fromBytes_withUnicodeWhitespace() throws Exception {
+		assertThat(Jay.get("[\u3000 1,\u20282 ]".getBytes("UTF-8")).asList()).containsExactly(1, 2);
+		assertThat(Jay.get("[1\u30002]".getBytes("UTF-8")).asList()).containsExactly("1\u30002");
+	}
+
+	@Test
+	public void test_fromBytes_numbersWithUnicodeWhitespace() throws Exception {
+		String json = "[2.5\u3000, 1\u3000, 0.12345678901234567\u3000, 92233720368547758070\u2028]";
+		List<Object> expected = Jay.get(json).asList();
+		assertThat(expected).containsExactly(2.5, 1, 0.12345678901234567, new BigInteger("92233720368547758070"));
+		assertThat(Jay.get(json.getBytes("UTF-8")).asList()).isEqualTo(expected);
+		assertThat(Jay.get(new ByteArrayInputStream(json.getBytes("UTF-8"))).asList()).isEqualTo(expected);
+		assertThat(Jay.get(json.getBytes("UTF-8")).withBigDecimals().asList().get(0)).isEqualTo(new BigDecimal("2.5"));
+	}
+
+	@Test
+	public void test_fromPath() throws Exception {
+		Path path = Files.createTempFile("sloppyj", ".json");
+		try {
+			Files.write(path, "[{id:1,name:'caf\u00e9'},{id:2}]".getBytes("UTF-8"));
+			assertThat(Jay.get(path).asJson()).isEqualTo("[{\"id\":1,\"name\":\"caf\u00e9\"},{\"id\":2}]");
+			
+			Files.write(path, new byte[0]);
+			assertThat(Jay.get(path).asList()).isEmpty();
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void test_withOut_complexValues() throws Exception {
+		assertThat(Jay.get("a:[1,{b:c}],c:d").withOut("a").asJson()).isEqualTo("{\"c\":\"d\"}");
+		assertThat(Jay.get("a:'x,y:z',c:d").withOut("a").asJson()).isEqualTo("{\"c\":\"d\"}");
+	}
+
+	private static class EventRecorder implements JayHandler {
+		final StringBuilder sb = new StringBuilder();
+		public void startObject()         { sb.append('{'); }
+		public void key(String key)       { sb.append(key).append('='); }
+		public void endObject()           { sb.append('}'); }
+		public void startArray()          { sb.append('['); }
+		public void endArray()            { sb.append(']'); }
+		public void value(int value)      { sb.append("i:").append(value).append(' '); }
+		public void value(long value)     { sb.append("l:").append(value).append(' '); }
+		public void value(double value)   { sb.append("d:").append(value).append(' '); }
+		public void value(BigInteger value) { sb.append("I:").append(value).append(' '); }
+		public void value(BigDecimal value) { sb.append("D:").append(value).append(' '); }
+		public void value(boolean value)  { sb.append("b:").append(value).append(' '); }
+		public void value(String value)   { sb.append("s:").append(value).append(' '); }
+		public void nullValue()           { sb.append("null "); }
+	}
+
+	@Test
+	public void test_sendEvents() throws Exception {
+		EventRecorder recorder = new EventRecorder();
+		Jay.get("a:[1, 12345678901, -9223372036854775808, 1.5, true, null, 'x y', z], b:c:d").sendEvents(recorder);
+		assertThat(recorder.sb.toString())
+			.isEqualTo("{a=[i:1 l:12345678901 l:-9223372036854775808 d:1.5 b:true null s:x y s:z ]b={c=s:d }}");
+	}
+
+	@Test
+	public void test_sendEvents_withArgsAndExclusions() throws Exception {
+		EventRecorder recorder = new EventRecorder();
+		Jay.get("?:?,b:?,c:[?,?]").withArgs("a", 2L, null, false).withOut("b").sendEvents(recorder);
+		assertThat(recorder.sb.toString()).isEqualTo("{a=l:2 c=[null b:false ]}");
+	}
+
+	@Test
+	public void test_sendEvents_bigNumbers() throws Exception {
+		EventRecorder recorder = new EventRecorder();
+		Jay.get("[9223372036854775808, 0.1, ?]").withArgs(new BigDecimal("2.50")).sendEvents(recorder);
+		assertThat(recorder.sb.toString()).isEqualTo("[I:9223372036854775808 d:0.1 D:2.50 ]");
+		assertThat(Jay.get("[9223372036854775808]").asList()).containsExactly(new BigInteger("9223372036854775808"));
+
+		recorder = new EventRecorder();
+		Jay.get("[1, 0.1]").withBigDecimals().sendEvents(recorder);
+		assertThat(recorder.sb.toString()).isEqualTo("[i:1 D:0.1 ]");
+	}
+
+	@Test
+	public void test_index() throws Exception {
+		JsonScanner scanner = new JsonScanner(JsonSource.of("a:[1,{b:'[{'}],c:{d:[]}"));
+		scanner.index = new JsonIndex();
+		scanner.recording = true;
+		scanner.skip();
+		assertThat(scanner.pos).isEqualTo(24);
+		assertThat(scanner.index.arrays.size()).isEqualTo(2);
+		assertThat(scanner.index.objects.size()).isEqualTo(3);
+		assertThat(scanner.index.arrays.end(3)).isEqualTo(14);
+		assertThat(scanner.index.objects.end(0)).isEqualTo(24);
+		assertThat(scanner.index.objects.end(1)).isEqualTo(-1);
+		
+		// only recorded forward of the last container
+		assertThat(scanner.index.objects.open(0)).isEqualTo(-1);
+		
+		assertThat(Jay.get(new StringReader("a:[]")).withIndex().index("a:[]", JsonSource.of(new StringReader("a:[]")))).isNull();
+	}
+
+	@Test
+	public void test_withIndex() throws Exception {
+		String json = "a:[1,{b:'[{'}],c:{d:[x,y]},e:f";
+		assertThat(Jay.get(json).withIndex().withOut("a", "c").asJson()).isEqualTo("{\"e\":\"f\"}");
+		assertThat(Jay.get(json).withIndex().at("e").as(String.class)).isEqualTo("f");
+		assertThat(Jay.get(json).withIndex().at("c.d").asList()).containsExactly("x", "y");
+		
+		JayReader reader = Jay.get(json.getBytes("UTF-8")).withIndex().asReader();
+		reader.nextToken();
+		reader.skipValue();
+		reader.skipValue();
+		assertThat(reader.nextName()).isEqualTo("e");
+	}
+
+	@Test
+	public void test_withIndex_recordsOnlyWhatIsSkipped() throws Exception {
+		String json = "a:[1,{b:2}],c:{d:[x,y]},e:f";
+		JsonParser parser = new JsonParser(Jay.get(json).withIndex(), Object.class);
+		parser.toJava();
+		assertThat(parser.index.arrays.size() + parser.index.objects.size()).isEqualTo(0);
+
+		parser = new JsonParser(Jay.get(json).withIndex().withOut("a"), Object.class);
+		assertThat(parser.toJava()).isEqualTo(Jay.get("c:{d:[x,y]},e:f").asMap());
+		assertThat(parser.index.arrays.size()).isEqualTo(1);
+		assertThat(parser.index.objects.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void test_withIndex_skipsAgainWithALookup() throws Exception {
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < 10000; i++) sb.append("{a:[1,2],b:'x'},");
+		String big = sb.append("]").toString();
+		String json = "big:" + big + ", small:1";
+		int[] reads = new int[1];
+		Jay jay = Jay.get(counting(json, reads)).withIndex();
+		
+		JayReader reader = jay.asReader();
+		reader.nextToken();
+		assertThat(reader.nextName()).isEqualTo("big");
+		reader.skipValue();
+		assertThat(reads[0]).isGreaterThan(big.length());
+		
+		// a second pass over the same document through the same Jay jumps over what the first one skipped
+		reads[0] = 0;
+		reader = jay.asReader();
+		reader.nextToken();
+		assertThat(reader.nextName()).isEqualTo("big");
+		reader.skipValue();
+		assertThat(reader.nextName()).isEqualTo("small");
+		assertThat(reads[0]).isLessThan(100);
+		
+		// nothing is read ahead to build the index, so a lookup that skips a value still stops at its own
+		reads[0] = 0;
+		assertThat(Jay.get(counting("a:[1], id:42, rest:" + big, reads)).withIndex().at("id").as(int.class)).isEqualTo(42);
+		assertThat(reads[0]).isLessThan(100);
+	}
+
+	/**
+	 * @return a source over the json that counts the characters read in reads[0]
+	 */
+	private static JsonSource counting(final String json, final int[] reads) {
+		return new JsonSource() {
+			boolean has(long pos) {
+				return pos < json.length();
+			}
+			int at(long pos) {
+				reads[0]++;
+				return json.charAt((int) pos);
+			}
+		};
+	}
+
+	@Test
+	public void test_template() throws Exception {
+		JayTemplate template = Jay.compile("?:[?,?], ?:{b:?}, c:'?'");
+		
+		Map<String, Object> map1 = template.bind("a", 1, "x", "d", true).asMap();
+		Map<String, Object> map2 = template.bind("e", 2, null, "f", false).asMap();
+		
+		assertThat(map1).isEqualTo(Jay.get("?:[?,?], ?:{b:?}, c:'?'").withArgs("a", 1, "x", "d", true).asMap());
+		assertThat(map1.keySet()).containsExactly("a", "d", "c");
+		assertThat(map2.keySet()).containsExactly("e", "f", "c");
+		assertThat((List<Object>) map2.get("e")).containsExactly(2, null);
+		assertThat(template.bind("a", 1, "x", "d", true).asJson()).isEqualTo("{\"a\":[1,\"x\"],\"d\":{\"b\":true},\"c\":\"?\"}");
+	}
+
+	@Test
+	public void test_template_withStringResult() throws Exception {
+		assertThat(Jay.compile("?").bind("a:b").asJson()).isEqualTo("\"a:b\"");
+		assertThat(Jay.compile("[?]").bind("a:b").asList()).containsExactly("a:b");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void test_template_missingArgs() throws Exception {
+		Jay.compile("[?,?]").bind(1);
+	}
+
+	@Test
+	public void test_select() throws Exception {
+		String json = "orders:[{id:1,items:[{sku:a},{sku:b}]},{id:2,items:[{sku:c}]},{id:3,items:[]}]";
+		
+		assertThat(JayPath.compile("orders.*.items[0].sku").select(json)).containsExactly("a", "c");
+		assertThat(JayPath.compile("orders[0,2].id").select(json)).containsExactly(1, 3);
+		assertThat(JayPath.compile("orders.1.{sku,id}").select(json)).containsExactly(2);
+		assertThat(JayPath.compile("orders.*.items.*.sku").select(json)).containsExactly("a", "b", "c");
+		assertThat(JayPath.compile("orders.*.missing").select(json)).isEmpty();
+		
+		assertThat(JayPath.compile("orders[*].id").select(Jay.get(json).asMap())).containsExactly(1, 2, 3);
+		assertThat(Jay.get("{a:1}\n{a:2}\n{b:3}").select(JayPath.compile("a"))).containsExactly(1, 2);
+		assertThat(Jay.get("a:[?,?]").withArgs(1, 2).select(JayPath.compile("a[1]"))).containsExactly(2);
+	}
+
+	@Test
+	public void test_select_repeatedKeysAndIndexes() throws Exception {
+		// as with at(), the first of repeated keys wins - while matching, and when parsed first for args
+		String json = "{a:1, b:{c:2}, a:3, b:{c:4}}";
+		assertThat(Jay.get(json).select(JayPath.compile("a"))).containsExactly(1);
+		assertThat(Jay.get(json).select(JayPath.compile("b.c"))).containsExactly(2);
+		assertThat(Jay.get(json).select(JayPath.compile("*"))).hasSize(2);
+		assertThat(Jay.get(json).select(JayPath.compile("{a,b}.c"))).containsExactly(2);
+		assertThat(Jay.get(new StringReader(json)).select(JayPath.compile("b.c"))).containsExactly(2);
+		assertThat(Jay.get("{a:?, b:?, a:?}").withArgs(1, 2, 3).select(JayPath.compile("a"))).containsExactly(1);
+		assertThat(Jay.get("[{a:?, a:?}]").withArgs(1, 2).at("0.a").as(int.class)).isEqualTo(1);
+		assertThat(Jay.get(json).at("b.c").as(int.class)).isEqualTo(2);
+		assertThat(Jay.get("{b:{c:1, c:2}}").at("b").asMap().get("c")).isEqualTo(1);
+		assertThat(Jay.get("{b:{c:?, c:?}}").withArgs(1, 2).select(JayPath.compile("b")).toString()).isEqualTo("[{c=1}]");
+		
+		// a repeated index matches once
+		String array = "{a:[10,20]}";
+		assertThat(Jay.get(array).select(JayPath.compile("a[0,0]"))).containsExactly(10);
+		assertThat(Jay.get(array).select(JayPath.compile("a[1,0,1]"))).containsExactly(10, 20);
+		assertThat(JayPath.compile("a[0,0]").select(Jay.get(array).asMap())).containsExactly(10);
+		assertThat(Jay.get("{a:[?,?]}").withArgs(10, 20).select(JayPath.compile("a[0,0]"))).containsExactly(10);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void test_select_invalidPath() throws Exception {
+		JayPath.compile("a[b]");
+	}
+
+	@Test
+	public void test_numbers() throws Exception {
+		assertThat(Jay.get("[1, -2147483648, 2147483648, -9223372036854775808, 9223372036854775808]").asList())
+			.containsExactly(1, Integer.MIN_VALUE, 2147483648L, Long.MIN_VALUE, new BigInteger("9223372036854775808"));
+		assertThat(Jay.get("[0.1, -1.5e-3, 1.7976931348623157e+308, 123456789.123456789, -0.0]").asList())
+			.containsExactly(0.1, -1.5e-3, Double.MAX_VALUE, 123456789.123456789, -0.0);
+	}
+
+	@Test
+	public void test_numbers_withBigDecimals() throws Exception {
+		assertThat(Jay.get("[1, 0.1, 1.10, 2e+1]").withBigDecimals().asList())
+			.containsExactly(1, new BigDecimal("0.1"), new BigDecimal("1.10"), new BigDecimal("2e+1"));
+	}
+
+	@Test
+	public void test_withSymbols() throws Exception {
+		JaySymbols symbols = new JaySymbols();
+		List<Object> list = Jay.get("[{id:1, 'type':\"A\"}, {id:2, \"type\":A }, { id : 3, type: ' A'}]").withSymbols(symbols).asList();
+		assertThat(list).hasSize(3);
+		Map<String, Object> m0 = (Map<String, Object>) list.get(0);
+		Map<String, Object> m1 = (Map<String, Object>) list.get(1);
+		Map<String, Object> m2 = (Map<String, Object>) list.get(2);
+		assertThat(m2).isEqualTo(Jay.get("{id:3, type:A}").asMap());
+		String key = m0.keySet().iterator().next();
+		assertThat(m1.keySet().iterator().next()).isSameAs(key);
+		assertThat(m2.keySet().iterator().next()).isSameAs(key);
+		assertThat(m1.get("type")).isSameAs(m0.get("type")).isSameAs(m2.get("type"));
+
+		Map<String, Object> other = Jay.get("{id:4}").withSymbols(symbols).asMap();
+		assertThat(other.keySet().iterator().next()).isSameAs(key);
+	}
+
+	@Test
+	public void test_withSymbols_sameValues() throws Exception {
+		String json = "{a\\tb:'x\\u0041', 'caf\u00e9':1, long:'0123456789012345678901234567890123456789', '':' ', n:null, t:true}";
+		assertThat(Jay.get(json).withSymbols(new JaySymbols(2, 4)).asMap()).isEqualTo(Jay.get(json).asMap());
+		assertThat(Jay.get(json.getBytes("UTF-8")).withSymbols(new JaySymbols()).asMap()).isEqualTo(Jay.get(json).asMap());
+	}
+
+	@Test
+	public void test_asBytes() throws Exception {
+		String s = "a\u00e9\u4e2d\ud83d\ude00z";
+		Map<String, Object> map = Jay.get("{a:1}").asMap();
+		map.put("s", s);
+		assertThat(Jay.get(map).asBytes()).isEqualTo(Jay.get(map).asJson().getBytes("UTF-8"));
+		assertThat(new String(Jay.get("{b:'\u00e9'}").asBytes(), "UTF-8")).isEqualTo("{\"b\":\"\u00e9\"}");
+		assertThat(Jay.get(Arrays.asList("\ud83d", "\ude00x")).asBytes()).isEqualTo("[\"?\",\"?x\"]".getBytes("UTF-8"));
+	}
+
+	@Test
+	public void test_sendJson() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < 5000; i++) sb.append(i % 3 == 0 ? "\ud83d\ude00" : (i % 3 == 1 ? "\u00e9" : "x"));
+		List<String> data = Arrays.asList(sb.toString(), "\u4e2d");
+		byte[] expected = Jay.get(data).asJson().getBytes("UTF-8");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Jay.get(data).sendJson(out);
+		assertThat(out.toByteArray()).isEqualTo(expected);
+
+		out = new ByteArrayOutputStream();
+		Jay.get(data).sendJson(Channels.newChannel(out));
+		assertThat(out.toByteArray()).isEqualTo(expected);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length + 10);
+		buffer.put((byte) '!');
+		Jay.get(data).sendJson(buffer);
+		assertThat(buffer.position()).isEqualTo(expected.length + 1);
+		byte[] actual = new byte[expected.length];
+		buffer.flip().position(1);
+		buffer.get(actual);
+		assertThat(actual).isEqualTo(expected);
+	}
+
+	@Test(expected=BufferOverflowException.class)
+	public void test_sendJson_overflow() throws Exception {
+		Jay.get("{a:b}").sendJson(ByteBuffer.allocate(4));
+	}
+
+	@Test
+	public void test_sendJson_transcodes() throws Exception {
+		String json = "{user_name:'bob', password:secret, tags:[a,'b c',1.50], none:null, next:?}";
+		Jay jay = Jay.get(json).withMapper(new SnakeMapper()).withOut("password").withArgs(7);
+		assertThat(jay.asJson()).isEqualTo("{\"user_name\":\"bob\",\"tags\":[\"a\",\"b c\",1.5],\"next\":7}");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Jay.get(new StringReader("[1,{a:b}]")).sendJson(out);
+		assertThat(out.toString("UTF-8")).isEqualTo("[1,{\"a\":\"b\"}]");
+
+		assertThat(Jay.get("{a:1}{b:2}").asJson()).isEqualTo("[{\"a\":1},{\"b\":2}]");
+		out = new ByteArrayOutputStream();
+		Jay.get(new StringReader("{a:1}{b:2} 3")).sendJson(out);
+		assertThat(out.toString("UTF-8")).isEqualTo("[{\"a\":1},{\"b\":2},3]");
+
+		out = new ByteArrayOutputStream();
+		Jay.get(new StringReader("{a:1}{b:2} 3")).withJsonLines().sendJson(out);
+		assertThat(out.toString("UTF-8")).isEqualTo("{\"a\":1}\n{\"b\":2}\n3");
+		assertThat(Jay.get("{a:?}{a:1,a:?}").withArgs(1, 2).withJsonLines().asJson()).isEqualTo("{\"a\":1}\n{\"a\":1,\"a\":2}");
+	}
+
+	@Test
+	public void test_sendJson_repeatedKeys() throws Exception {
+		String json = "{a:1, b:{c:1, c:2}, a:3} [{d:1},{d:2}] {e:1, e:null}";
+		assertThat(Jay.get(json).asJson()).isEqualTo("[{\"a\":1,\"b\":{\"c\":1,\"c\":2},\"a\":3},[{\"d\":1},{\"d\":2}],{\"e\":1}]");
+
+		String expected = "[{\"a\":3,\"b\":{\"c\":2}},[{\"d\":1},{\"d\":2}],{}]";
+		assertThat(Jay.get(json).withUniqueKeys().asJson()).isEqualTo(expected);
+		assertThat(Jay.get(json).withUniqueKeys().withOut("a").asJson()).isEqualTo("[{\"b\":{\"c\":2}},[{\"d\":1},{\"d\":2}],{}]");
+		assertThat(Jay.get("{?:1, a:?}").withArgs("a", 2).withUniqueKeys().asJson()).isEqualTo("{\"a\":2}");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Jay.get(new ByteArrayInputStream(json.getBytes("UTF-8"))).withUniqueKeys().sendJson(out);
+		assertThat(out.toString("UTF-8")).isEqualTo(expected);
+		assertThat(Jay.get(new StringReader("[{a:1, a:2}]")).withUniqueKeys().asJson()).isEqualTo("[{\"a\":2}]");
+	}
+
+	/**
+	 * @return a stream of the start, the item count times, then the end - recording the most
+	 * bytes asked for at once (the size of the parser's buffer) in reads[0]
+	 */
+	private static InputStream generate(final String start, final String item, final int count, final String end, final int[] reads) throws Exception {
+		final byte[] bytes = item.getBytes("UTF-8");
+		final byte[] head = start.getBytes("UTF-8");
+		final byte[] tail = end.getBytes("UTF-8");
+		return new InputStream() {
+			long pos;
+			final long length = head.length + (long) bytes.length * count + tail.length;
+			public int read() {
+				if(pos >= length) return -1;
+				long i = pos++;
+				if(i < head.length) return head[(int) i];
+				i -= head.length;
+				if(i < (long) bytes.length * count) return bytes[(int) (i % bytes.length)];
+				return tail[(int) (i - (long) bytes.length * count)];
+			}
+			public int read(byte[] b, int off, int len) {
+				reads[0] = Math.max(reads[0], len);
+				int n = 0;
+				for(int c; n < len && (c = read()) >= 0; n++) b[off + n] = (byte) c;
+				return (n == 0) ? -1 : n;
+			}
+		};
+	}
+
+	@Test
+	public void test_sendJson_largeStream_boundedMemory() throws Exception {
+		final long[] written = new long[1];
+		OutputStream counter = new OutputStream() {
+			public void write(int b) { written[0]++; }
+			public void write(byte[] b, int off, int len) { written[0] += len; }
+		};
+		int count = 400000; // about 8MB in, 10MB out
+		int[] reads = new int[1];
+		Jay.get(generate("[", "{id:1,name:x},", count, "]", reads)).sendJson(counter);
+		assertThat(written[0]).isEqualTo("{\"id\":1,\"name\":\"x\"}".length() * (long) count + count + 1);
+		assertThat(reads[0]).isLessThanOrEqualTo(2 * JsonParser.READ_AHEAD);
+
+		// one large object, as JSON Lines: nothing is read ahead
+		reads[0] = 0;
+		Jay.get(generate("{", "k:[1,2],", count, "}", reads)).withJsonLines().sendJson(counter);
+		assertThat(reads[0]).isLessThanOrEqualTo(JsonSource.BUFFER_SIZE);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void test_sendJson_severalValuesInLargeStream() throws Exception {
+		// too long to read ahead, so each would have to be written on its own line
+		Jay.get(generate("", "{id:1} ", 100000, "", new int[1])).sendJson(new ByteArrayOutputStream());
+	}
+
+	@Test
+	public void test_as_primitiveArray() throws Exception {
+		assertThat(Jay.get("[1,2,3]").as(int[].class)).isEqualTo(new int[] { 1, 2, 3 });
+		assertThat(Jay.get(new StringReader("[0.5,-2]")).as(double[].class)).isEqualTo(new double[] { 0.5, -2 });
+		assertThat(Jay.get("{a:[true]}").at("a").as(boolean[].class)).isEqualTo(new boolean[] { true });
+		assertThat(Jay.get(Arrays.asList(1, 2L)).as(long[].class)).isEqualTo(new long[] { 1, 2 });
+		assertThat(Jay.get("[1,a]").as(int[].class)).isNull();
+		assertThat(Jay.get(new double[] { 1.5, 2 }).asJson()).isEqualTo("[1.5,2.0]");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void test_as_unsupportedArray() throws Exception {
+		Jay.get("[1]").as(short[].class);
+	}
+
+	@Test
+	public void test_asJson_escapes() throws Exception {
+		List<String> list = Arrays.asList("a\"b\\c\b\t\n\f\r\u0001\u001f", "</script>/", "\u007f\u0080\u009f\u00a0", "\u1fff\u2000\u2028\u20ff\u2100");
+		assertThat(Jay.get(list).asJson()).isEqualTo("[\"a\\\"b\\\\c\\b\\t\\n\\f\\r\\u0001\\u001f\","
+				+ "\"<\\/script>/\","
+				+ "\"\u007f\\u0080\\u009f\u00a0\","
+				+ "\"\u1fff\\u2000\\u2028\\u20ff\u2100\"]");
+	}
+
+	@Test
+	public void test_withRecycledBuffers() throws Exception {
+		String json = "{a:[1,'two',[3,{b:[]}]],c:'caf\\u00e9'}";
+		Map<String, Object> expected = Jay.get(json).asMap();
+		assertThat(Jay.get(json).withRecycledBuffers().asMap()).isEqualTo(expected);
+		assertThat(Jay.get(json).withRecycledBuffers().as(Object[].class)).isEqualTo(Jay.get(json).as(Object[].class));
+		assertThat(Jay.get(expected).withRecycledBuffers().asJson()).isEqualTo(Jay.get(expected).asJson());
+		assertThat(Jay.get(expected).withRecycledBuffers().asBytes()).isEqualTo(Jay.get(expected).asBytes());
+
+		long allocations = JayBuffers.allocations();
+		long reuses = JayBuffers.reuses();
+		for(int i = 0; i < 3; i++) {
+			Jay.get(Jay.get(json).withRecycledBuffers().asMap()).withRecycledBuffers().asBytes();
+			Jay.get(Jay.get(json).withRecycledBuffers().asMap()).withRecycledBuffers().asJson();
+		}
+		assertThat(JayBuffers.allocations()).isEqualTo(allocations);
+		assertThat(JayBuffers.reuses()).isGreaterThan(reuses);
+	}
+
+	@Test
+	public void test_withRecycledBuffers_nested() throws Exception {
+		Adapter adapter = new Adapter() {
+			public Object fromJson(Class<?> type, Object object) {
+				if("x".equals(object)) return Jay.get("[[1,2],'x-y']").withRecycledBuffers().asList();
+				return object;
+			}
+			public Object toJson(Object object) {
+				if("x".equals(object)) return Jay.get("[x,{y:z}]").withRecycledBuffers().asJson();
+				return object;
+			}
+		};
+		assertThat(Jay.get("[a,[x,b],c]").withAdapter(adapter).withRecycledBuffers().asJson())
+			.isEqualTo("[\"a\",[[[1,2],\"x-y\"],\"b\"],\"c\"]");
+		assertThat(Jay.get(Arrays.asList("a", "x", "b")).withAdapter(adapter).withRecycledBuffers().asJson())
+			.isEqualTo("[\"a\",\"[\\\"x\\\",{\\\"y\\\":\\\"z\\\"}]\",\"b\"]");
+	}
+
+	@Test
+	public void test_config() throws Exception {
+		JayConfig base = JayConfig.create().withMapper(new SnakeMapper());
+		JayConfig config = base.withOut("password").withBigDecimals();
+
+		assertThat(config.get("{user_name:bob,password:x,score:1.50}").asMap())
+			.isEqualTo(Jay.get("{userName:bob,score:?}").withArgs(new BigDecimal("1.50")).asMap());
+		assertThat(config.get("{user_name:?}").withArgs("ann").asMap()).isEqualTo(Jay.get("userName:ann").asMap());
+		assertThat(config.get(Jay.get("{userName:bob,password:x}").asMap()).asJson()).isEqualTo("{\"user_name\":\"bob\"}");
+		assertThat(config.get("a", "b").asList()).containsExactly("a", "b");
+
+		assertThat(base.get("{password:x,score:1.5}").asMap()).isEqualTo(Jay.get("{password:x,score:1.5}").asMap());
+		assertThat(JayConfig.create().get("{a_b:1}").asMap()).containsKey("a_b");
+	}
+
+	@Test
+	public void test_config_threads() throws Exception {
+		final JayConfig config = JayConfig.create().withMapper(new SnakeMapper()).withOut("b").withRecycledBuffers();
+		final Map<String, Object> expected = Jay.get("{aB:[1,2,3],c:x}").asMap();
+		Thread[] threads = new Thread[4];
+		final boolean[] ok = new boolean[threads.length];
+		for(int t = 0; t < threads.length; t++) {
+			final int i = t;
+			threads[t] = new Thread() {
+				public void run() {
+					boolean same = true;
+					for(int n = 0; n < 1000; n++) {
+						same &= expected.equals(config.get("{a_b:[1,2,3],b:2,c:x}").asMap());
+					}
+					ok[i] = same;
+				}
+			};
+			threads[t].start();
+		}
+		for(int t = 0; t < threads.length; t++) {
+			threads[t].join();
+			assertThat(ok[t]).isTrue();
+		}
+	}
+
 }
@@ -47,4 +47,58 @@ public class MapperTests {
 		assertThat(toSnake("myKey200")).isEqualTo("my_key_200");
 	}
 
+	@Test
+	public void test_cachingMapper() throws Exception {
+		final int[] calls = new int[1];
+		Mapper mapper = new CachingMapper(new SnakeMapper() {
+			public String fromJson(String key) {
+				calls[0]++;
+				return super.fromJson(key);
+			}
+			public String toJson(String key) {
+				calls[0]++;
+				return super.toJson(key);
+			}
+		}, 2);
+		assertThat(mapper.fromJson("my_key")).isEqualTo("myKey");
+		assertThat(mapper.fromJson("my_key")).isEqualTo("myKey");
+		assertThat(mapper.toJson("myKey")).isEqualTo("my_key");
+		assertThat(mapper.toJson("myKey")).isEqualTo("my_key");
+		assertThat(calls[0]).isEqualTo(2);
+
+		assertThat(mapper.fromJson(null)).isNull();
+		assertThat(calls[0]).isEqualTo(3);
+
+		mapper.fromJson("a_b");
+		mapper.fromJson("c_d"); // full - cleared
+		mapper.fromJson("my_key");
+		assertThat(calls[0]).isEqualTo(6);
+	}
+
+	static class Names {
+		String myKey = "a";
+		int otherKey = 1;
+	}
+
+	static class CountingMapper extends SnakeMapper {
+		static int calls;
+		public String toJson(String key) {
+			calls++;
+			return super.toJson(key);
+		}
+	}
+
+	@Test
+	public void test_modelNames_mappedOncePerMapper() throws Exception {
+		String json = "{\"my_key\":\"a\",\"other_key\":1}";
+		CountingMapper.calls = 0;
+		assertThat(Jay.get(new Names()).withMapper(new CountingMapper()).asJson()).isEqualTo(json);
+		assertThat(CountingMapper.calls).isEqualTo(2);
+
+		// a Mapper of another kind in between does not evict the names, and new instances share them
+		assertThat(Jay.get(new Names()).withMapper(new CachingMapper(new SnakeMapper())).asJson()).isEqualTo(json);
+		assertThat(Jay.get(new Names()).withMapper(new CountingMapper()).asJson()).isEqualTo(json);
+		assertThat(CountingMapper.calls).isEqualTo(2);
+	}
+
 }
@@ -17,11 +17,18 @@ package fm.strength.sloppyj;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
@@ -56,6 +63,45 @@ public class ModelTests {
         assertThat(result.weight).isEqualTo(150);
     }
     @Test
+    public void test_fromJson_parallel() throws Exception {
+        StringBuilder sb = new StringBuilder("[");
+        for(int i = 0; i < 1000; i++) {
+            sb.append("{name:bob").append(i).append(",weight:").append(i).append(",extra:[1,{a:b}]},");
+        }
+        sb.append(']');
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Class00> result = Jay.get(sb.toString()).parallel(pool).asList(Class00.class);
+
+            assertThat(result).hasSize(1000);
+            for(int i = 0; i < 1000; i++) {
+                assertThat(result.get(i).name).isEqualTo("bob" + i);
+                assertThat(result.get(i).weight).isEqualTo(i);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    @Test
+    public void test_fromJson_stream() throws Exception {
+        Reader reader = new StringReader("{name:bob,weight:150}\n{name:joe,weight:160}\n\n{name:sue}\n");
+        Iterator<Class00> iterator = Jay.get(reader).stream(Class00.class);
+
+        assertThat(iterator.hasNext()).isTrue();
+        assertThat(iterator.next().name).isEqualTo("bob");
+        assertThat(iterator.next().weight).isEqualTo(160);
+        assertThat(iterator.next().name).isEqualTo("sue");
+        assertThat(iterator.hasNext()).isFalse();
+    }
+    @Test
+    public void test_fromJson_withExtraNestedFields() throws Exception {
+        Class00 result = Jay.get("name:bob,trainer:{name:{first:joe},pets:[{a:b}]},weight:150").as(Class00.class);
+
+        assertThat(result.name).isEqualTo("bob");
+        assertThat(result.weight).isEqualTo(150);
+    }
+    @Test
     public void test_fromJson_withMissingFields() throws Exception {
         Class00 result = Jay.get("name:bob").as(Class00.class);
 
@@ -280,4 +326,297 @@ public class ModelTests {
 		assertThat(result.Id).isEqualTo(id);
 	}
 
+	public static class Class14 {
+		public long small;
+		public BigInteger big;
+		public BigDecimal exact;
+		public double approx;
+	}
+	@Test
+	public void test_fromJson_bigNumbers() throws Exception {
+		Class14 result = Jay.get("small:1,big:123456789012345678901234567890,exact:0.1,approx:0.1").as(Class14.class);
+		
+		assertThat(result.small).isEqualTo(1L);
+		assertThat(result.big).isEqualTo(new BigInteger("123456789012345678901234567890"));
+		assertThat(result.exact).isEqualTo(new BigDecimal("0.1"));
+		assertThat(result.approx).isEqualTo(0.1);
+	}
+
+	public static class Class12 {
+		public double weight;
+		public final float height;
+		Class12() { height = -1; }
+	}
+	@Test
+	public void test_fromJson_wideningIntsToFloatingPointFields() throws Exception {
+		Class12 result = Jay.get("weight:150,height:6").as(Class12.class);
+		
+		assertThat(result.weight).isEqualTo(150.0);
+		assertThat(result.height).isEqualTo(6.0f);
+	}
+
+	public static class Class18 {
+		public short s;
+		public int i;
+		public long l;
+		public float f;
+		public double d;
+	}
+	@Test
+	public void test_accessor_wideningSets() throws Exception {
+		Class18 result = new Class18();
+		Accessor.of(Class18.class.getField("s")).set(result, (byte) 1);
+		Accessor.of(Class18.class.getField("i")).set(result, 'a');
+		Accessor.of(Class18.class.getField("l")).set(result, 3);
+		Accessor.of(Class18.class.getField("f")).set(result, 4L);
+		Accessor.of(Class18.class.getField("d")).set(result, 5.5f);
+		
+		assertThat(result.s).isEqualTo((short) 1);
+		assertThat(result.i).isEqualTo(97);
+		assertThat(result.l).isEqualTo(3L);
+		assertThat(result.f).isEqualTo(4f);
+		assertThat(result.d).isEqualTo(5.5);
+		
+		Accessor.of(Class18.class.getField("d")).set(result, (short) 6);
+		assertThat(result.d).isEqualTo(6.0);
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void test_accessor_narrowingSet() throws Exception {
+		Accessor.of(Class18.class.getField("i")).set(new Class18(), 1L);
+	}
+
+	@Test
+	public void test_classModel_cachedByProbe() throws Exception {
+		assertThat(ClassModel.of(Class18.class)).isSameAs(ClassModel.of(Class18.class));
+		
+		ClassModel.ClassKey key = new ClassModel.ClassKey(Class18.class, null);
+		ClassModel.ClassProbe probe = new ClassModel.ClassProbe(Class18.class);
+		assertThat(probe.hashCode()).isEqualTo(key.hashCode());
+		assertThat(probe.equals(key)).isTrue();
+		assertThat(key.equals(probe)).isTrue();
+		assertThat(probe.equals(new ClassModel.ClassKey(Class13.class, null))).isFalse();
+	}
+
+	public static class Class13 {
+		public String name;
+		public boolean constructed;
+		public Class13() { constructed = true; }
+	}
+	@Test
+	public void test_fromJson_neverCallsConstructors() throws Exception {
+		for(int i = 0; i < 3; i++) {
+			Class13 result = Jay.get("name:bob").as(Class13.class);
+			
+			assertThat(result.name).isEqualTo("bob");
+			assertThat(result.constructed).isFalse();
+		}
+		assertThat(Kreator.newInstance(Class13.class)).isNotSameAs(Kreator.newInstance(Class13.class));
+	}
+
+	public static class Class11 {
+		public static String shared = "unchanged";
+		public String name;
+	}
+	@Test
+	public void test_fromJson_skipsStaticFields() throws Exception {
+		Class11 result = Jay.get("name:bob,shared:changed").as(Class11.class);
+		
+		assertThat(result.name).isEqualTo("bob");
+		assertThat(Class11.shared).isEqualTo("unchanged");
+	}
+
+	@Test
+	public void test_fromJson_concurrently() throws Exception {
+		final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+		Thread[] threads = new Thread[4];
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for(int j = 0; j < 500; j++) {
+							Class07 result = Jay.get("name:bob,children:[{age:"+j+"}]").as(Class07.class);
+							assertThat(result.children.get(0).age).isEqualTo(j);
+							assertThat(Jay.get(result).asJson()).isEqualTo("{\"name\":\"bob\",\"children\":[{\"age\":"+j+"}]}");
+						}
+					} catch(Throwable t) {
+						errors.add(t);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(errors).isEmpty();
+	}
+
+	public static class Class15 {
+		public String firstName;
+		public int userAge;
+		public List<Class15> friends;
+	}
+	@Test
+	public void test_withMapper_mapsFieldNamesOncePerClass() throws Exception {
+		final List<String> calls = new CopyOnWriteArrayList<String>();
+		Mapper mapper = new SnakeMapper() {
+			public String fromJson(String key) {
+				calls.add(key);
+				return super.fromJson(key);
+			}
+			public String toJson(String key) {
+				calls.add(key);
+				return super.toJson(key);
+			}
+		};
+		String json = "{first_name:a,user_age:1,friends:[{first_name:b,user_age:2},{first_name:c,user_age:3,friends:[]}]}";
+		Class15 result = Jay.get(json).withMapper(mapper).as(Class15.class);
+		assertThat(result.friends.get(1).firstName).isEqualTo("c");
+		assertThat(result.friends.get(1).userAge).isEqualTo(3);
+		assertThat(calls).containsOnly("firstName", "userAge", "friends", "first_name", "user_age");
+		assertThat(calls).hasSize(6); // each field once in each direction
+
+		calls.clear();
+		assertThat(Jay.get(result).withMapper(mapper).asJson()).isEqualTo(
+				"{\"first_name\":\"a\",\"user_age\":1,\"friends\":[{\"first_name\":\"b\",\"user_age\":2},{\"first_name\":\"c\",\"user_age\":3,\"friends\":[]}]}");
+		assertThat(calls).isEmpty();
+
+		calls.clear();
+		Jay.get("{unknown_1:a,unknown_1:b,first_name:c}").withMapper(mapper).as(Class15.class);
+		assertThat(calls).containsExactly("unknown_1", "unknown_1");
+	}
+
+	public static class Money {
+		final long cents;
+		Money(long cents) { this.cents = cents; }
+	}
+	public static class Euros extends Money {
+		Euros(long cents) { super(cents); }
+	}
+	public static class Class16 {
+		public Money price;
+		public String name;
+		public int count;
+	}
+	@Test
+	public void test_withTypeAdapter() throws Exception {
+		final List<Object> calls = new CopyOnWriteArrayList<Object>();
+		TypeAdapter<Money> adapter = new TypeAdapter<Money>() {
+			public Money fromJson(Object json) {
+				calls.add(json);
+				return new Money(new BigDecimal(json.toString()).movePointRight(2).longValue());
+			}
+			public Object toJson(Money value) {
+				calls.add(value);
+				return BigDecimal.valueOf(value.cents, 2).toString();
+			}
+		};
+		JayConfig config = JayConfig.create().withAdapter(Money.class, adapter);
+
+		Class16 result = config.get("{price:'1.50',name:bob,count:2}").as(Class16.class);
+		assertThat(result.price.cents).isEqualTo(150);
+		assertThat(result.name).isEqualTo("bob");
+		assertThat(result.count).isEqualTo(2);
+		assertThat(calls).containsExactly("1.50");
+
+		calls.clear();
+		result.price = new Euros(299);
+		assertThat(config.get(result).asJson()).isEqualTo("{\"price\":\"2.99\",\"name\":\"bob\",\"count\":2}");
+		assertThat(calls).containsExactly(result.price);
+
+		assertThat(Jay.get(Arrays.asList(new StringBuilder("ab"), "cd")).withAdapter(CharSequence.class, new TypeAdapter<CharSequence>() {
+			public CharSequence fromJson(Object json) {
+				return (String) json;
+			}
+			public Object toJson(CharSequence value) {
+				return value.toString().toUpperCase();
+			}
+		}).asJson()).isEqualTo("[\"AB\",\"cd\"]");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void test_withTypeAdapter_coreType() throws Exception {
+		Jay.get("a").withAdapter(String.class, new TypeAdapter<String>() {
+			public String fromJson(Object json) { return null; }
+			public Object toJson(String value) { return null; }
+		});
+	}
+
+	@Test
+	public void test_convert_mapToModel() throws Exception {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("first_name", " ann\n");
+		map.put("user_age", 30L);
+		map.put("password", "x");
+		map.put("friends", Arrays.asList(Jay.get("{first_name:bob,user_age:31}").asMap()));
+
+		Class15 result = Jay.get(map).withMapper(new SnakeMapper()).withOut("password").as(Class15.class);
+		assertThat(result.firstName).isEqualTo(" ann\n"); // carried over exactly, not trimmed or unescaped as text
+		assertThat(result.userAge).isEqualTo(30);
+		assertThat(result.friends).hasSize(1);
+		assertThat(result.friends.get(0).firstName).isEqualTo("bob");
+
+		Map<String, Object> back = Jay.get(result).withMapper(new SnakeMapper()).asMap();
+		assertThat(back).isEqualTo(Jay.get("{firstName:?,userAge:30,friends:[{firstName:bob,userAge:31}]}").withArgs(" ann\n").asMap());
+	}
+
+	@Test
+	public void test_convert_numbers() throws Exception {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("small", 5);
+		map.put("big", 7);
+		map.put("exact", 1.5);
+		map.put("approx", 2);
+		Class14 result = Jay.get(map).as(Class14.class);
+		assertThat(result.small).isEqualTo(5L);
+		assertThat(result.big).isEqualTo(BigInteger.valueOf(7));
+		assertThat(result.exact).isEqualTo(new BigDecimal("1.5"));
+		assertThat(result.approx).isEqualTo(2.0);
+
+		map.clear();
+		map.put("a", 0.1f);
+		map.put("b", new BigDecimal("100"));
+		map.put("c", Double.NaN);
+		assertThat(Jay.get(map).as(Map.class)).isEqualTo(Jay.get("{a:0.1,b:100,c:?}").withArgs(Double.NaN).asMap());
+		assertThat(Jay.get(map).withBigDecimals().as(Map.class).get("a")).isEqualTo(new BigDecimal("0.1"));
+	}
+
+	public static class Class17 {
+		public int[] ints;
+		public long[] longs;
+		public double[] doubles;
+		public float[] floats;
+		public boolean[] flags;
+	}
+	@Test
+	public void test_primitiveArrays() throws Exception {
+		String json = "{ints:[1,-2,3],longs:[9007199254740993],doubles:[1,2.5,-1e-3],floats:[0.1],flags:[true,false]}";
+		Class17 result = Jay.get(json).as(Class17.class);
+		assertThat(result.ints).isEqualTo(new int[] { 1, -2, 3 });
+		assertThat(result.longs).isEqualTo(new long[] { 9007199254740993L });
+		assertThat(result.doubles).isEqualTo(new double[] { 1, 2.5, -1e-3 });
+		assertThat(result.floats).isEqualTo(new float[] { 0.1f });
+		assertThat(result.flags).isEqualTo(new boolean[] { true, false });
+		assertThat(Jay.get(result).asJson()).isEqualTo("{\"ints\":[1,-2,3],\"longs\":[9007199254740993],"
+				+ "\"doubles\":[1.0,2.5,-0.001],\"floats\":[0.1],\"flags\":[true,false]}");
+
+		Class17 copy = Jay.get(Jay.get(result).asMap()).as(Class17.class);
+		assertThat(copy.doubles).isEqualTo(result.doubles);
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("ints", result.ints);
+		map.put("floats", new double[] { 0.25 });
+		copy = Jay.get(map).as(Class17.class);
+		assertThat(copy.ints).isEqualTo(result.ints).isNotSameAs(result.ints);
+		assertThat(copy.floats).isEqualTo(new float[] { 0.25f });
+	}
+
+	@Test
+	public void test_primitiveArrays_mismatch() throws Exception {
+		Class17 result = Jay.get("{ints:[1,2.5],longs:[1,x],doubles:[1,?],flags:[true,1]}").withArgs(2L).as(Class17.class);
+		assertThat(result.ints).isNull();
+		assertThat(result.longs).isNull();
+		assertThat(result.doubles).isEqualTo(new double[] { 1, 2 });
+		assertThat(result.flags).isNull();
+	}
+
 }